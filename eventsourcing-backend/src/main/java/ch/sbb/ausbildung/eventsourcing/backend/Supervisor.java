@@ -6,16 +6,20 @@ import akka.actor.ActorRef;
 import akka.actor.ActorSystem;
 import akka.actor.Props;
 import akka.stream.ActorMaterializer;
+import ch.sbb.ausbildung.eventsourcing.backend.client.EventHub;
 import ch.sbb.ausbildung.eventsourcing.backend.client.HttpRoute;
 import ch.sbb.ausbildung.eventsourcing.backend.in.InboundActor;
-import ch.sbb.ausbildung.eventsourcing.backend.vm.VerkehrsmittelActor;
+import ch.sbb.ausbildung.eventsourcing.backend.vm.VerkehrsmittelRegion;
 
 /**
  * Supervisor actor and root of the (user's) actor hierarchy.
  * It is responsible for starting and supervising its child actors:<ul>
- *     <li>First, it starts the "Verkehrsmittel" actor (entity, persistent actor (eventsourced)</li>
+ *     <li>First, it starts the event hub (one per node) streaming the events of the event store and holding the current
+ *     state of all verkehrsmittel</li>
+ *     <li>then the "Verkehrsmittel" region which routes the commands to the "Verkehrsmittel" entities
+ *     (one persistent actor (eventsourced) per verkehrsmittel)</li>
  *     <li>Second, the http server and all its routes are bound to port 8080</li>
- *     <li>finally, the inbound actor is started. It holds a ref (ActorRef) to the Verkehrsmittel actor in order
+ *     <li>finally, the inbound actor is started. It holds a ref (ActorRef) to the Verkehrsmittel region in order
  *     to forward the incoming commands to it</li>
  * </ul>
  *
@@ -31,12 +35,17 @@ public class Supervisor extends AbstractLoggingActor {
 
     @Override
     public void preStart() throws Exception {
-        // create the "verkehrsmittel" actor (DDD: aggregate root, bounded ctx for "verkehrsmittel") handling the commands and events
-        ActorRef vmActor = context().actorOf(VerkehrsmittelActor.props(), "vmActor");
+        ActorSystem system = context().system();
+        ActorMaterializer materializer = ActorMaterializer.create(context());
+        // one event hub per node, shared by all websocket actors (clients) and the "verkehrsmittel" region (current state)
+        EventHub eventHub = new EventHub(system, materializer);
+
+        // create the "verkehrsmittel" region routing the commands to the "verkehrsmittel" entities
+        // (DDD: aggregate root, bounded ctx for "verkehrsmittel") handling the commands and events
+        ActorRef vmActor = context().actorOf(VerkehrsmittelRegion.props(eventHub::currentVerkehrsmittel), "vmRegion");
 
         // start HTTP server binding (port 8080) incl. routes and listen for incoming requests
-        ActorSystem system = context().system();
-        new HttpRoute().bindHttp(ActorMaterializer.create(context()), system, vmActor);
+        new HttpRoute().bindHttp(materializer, system, vmActor, eventHub);
         // finally start the inbound streaming actor
         context().actorOf(InboundActor.props(vmActor));
 
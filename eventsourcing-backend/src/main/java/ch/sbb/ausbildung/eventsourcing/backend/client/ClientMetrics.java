@@ -0,0 +1,65 @@
+
+package ch.sbb.ausbildung.eventsourcing.backend.client;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Metrics of a single client (websocket connection), updated by its event stream and logged periodically by the
+ * {@link WebsocketActor} (see <code>eventsourcing.websocket.metrics-interval</code> in "application.conf").
+ * The counters are updated from the stream's threads, hence they are atomic.
+ */
+class ClientMetrics {
+
+    // live events taken from the hub, resp. taken out of the client's buffer
+    private final AtomicLong buffered = new AtomicLong();
+    private final AtomicLong unbuffered = new AtomicLong();
+    // messages sent to the client
+    private final AtomicLong sent = new AtomicLong();
+    // number of times the client's buffer overflowed (slow consumer)
+    private final AtomicLong overflows = new AtomicLong();
+    // events skipped since a newer one of the same verkehrsmittel superseded them (lagging client)
+    private final AtomicLong conflated = new AtomicLong();
+
+    void buffered() {
+        buffered.incrementAndGet();
+    }
+
+    void unbuffered() {
+        unbuffered.incrementAndGet();
+    }
+
+    void sent() {
+        sent.incrementAndGet();
+    }
+
+    void overflowed() {
+        overflows.incrementAndGet();
+    }
+
+    void conflated() {
+        conflated.incrementAndGet();
+    }
+
+    long getSent() {
+        return sent.get();
+    }
+
+    // number of live events in the client's buffer (i.e. the client's lag behind the hub)
+    long getPending() {
+        return Math.max(0L, buffered.get() - unbuffered.get());
+    }
+
+    long getOverflows() {
+        return overflows.get();
+    }
+
+    long getConflated() {
+        return conflated.get();
+    }
+
+    // the counters of the buffer start again with every (re)started stream
+    void resetBuffer() {
+        buffered.set(0L);
+        unbuffered.set(0L);
+    }
+}
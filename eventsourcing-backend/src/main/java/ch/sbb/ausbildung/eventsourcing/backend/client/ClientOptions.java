@@ -0,0 +1,30 @@
+
+package ch.sbb.ausbildung.eventsourcing.backend.client;
+
+import io.vavr.control.Option;
+import lombok.Value;
+
+import java.util.Map;
+
+/**
+ * Options of a websocket connection, negotiated by the client with the query parameters of the websocket request
+ * (e.g. <tt>ws://localhost:8080/websocket?frames=batched</tt>):<ul>
+ *     <li><code>frames</code>: <tt>single</tt> (default) = one FSA per frame, <tt>batched</tt> = a JSON array of FSAs
+ *     per frame, i.e. the events are grouped by size or time window (see <code>eventsourcing.websocket.batch</code>
+ *     in "application.conf")</li>
+ *     <li><code>encoding</code>: <tt>json</tt> (default) or <tt>cbor</tt> (binary), see {@link MessageEncoding}</li>
+ * </ul>
+ * An unknown encoding is rejected (the websocket request is answered by "400 Bad Request").
+ */
+@Value
+class ClientOptions {
+
+    boolean batchedFrames;
+    MessageEncoding encoding;
+
+    // none if the encoding requested is unknown
+    static Option<ClientOptions> of(Map<String, String> queryParameters) {
+        return MessageEncoding.of(queryParameters.get("encoding"))
+                .map(encoding -> new ClientOptions("batched".equalsIgnoreCase(queryParameters.get("frames")), encoding));
+    }
+}
@@ -0,0 +1,57 @@
+
+package ch.sbb.ausbildung.eventsourcing.backend.client;
+
+import akka.NotUsed;
+import akka.stream.javadsl.Flow;
+import ch.sbb.ausbildung.eventsourcing.backend.client.EventHub.Published;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+
+/**
+ * Events of a client collected while its downstream (i.e. the websocket) is backpressured, conflated per verkehrsmittel:
+ * of the moved resp. delayed events of a verkehrsmittel only the newest one is kept (it replaces the older one at its
+ * position), since only the latest position resp. delay matters to the client. All other events (e.g. created) are
+ * kept, so a verkehrsmittel is always created before it's moved or delayed.
+ *
+ * A lagging client therefore skips the intermediate positions and catches up in bounded time, without the events being
+ * buffered on the server. The sequence numbers of the skipped events are missing on the client, which is fine since
+ * each event sent supersedes them.
+ */
+class ConflatedEvents {
+
+    // pending events in order of arrival (key: persistence id + type for the conflated ones, otherwise unique)
+    private final LinkedHashMap<Object, Published> events = new LinkedHashMap<>();
+    private final ClientMetrics metrics;
+
+    private ConflatedEvents(ClientMetrics metrics) {
+        this.metrics = metrics;
+    }
+
+    // conflates the events while the downstream is backpressured (they are passed through unchanged otherwise)
+    static Flow<Published, Published, NotUsed> flow(ClientMetrics metrics) {
+        return Flow.<Published>create()
+                .conflateWithSeed(published -> new ConflatedEvents(metrics).add(published), ConflatedEvents::add)
+                .mapConcat(ConflatedEvents::events);
+    }
+
+    private ConflatedEvents add(Published published) {
+        if (events.put(keyOf(published), published) != null) {
+            metrics.conflated();
+        }
+        return this;
+    }
+
+    private List<Published> events() {
+        return new ArrayList<>(events.values());
+    }
+
+    private static Object keyOf(Published published) {
+        final String type = published.getAction().getType();
+        if (FSA.Events.VM_MOVED.equals(type) || FSA.Events.VM_DELAYED.equals(type)) {
+            return published.getPersistenceId() + "/" + type;
+        }
+        return new Object();
+    }
+}
@@ -0,0 +1,387 @@
+
+package ch.sbb.ausbildung.eventsourcing.backend.client;
+
+import akka.NotUsed;
+import akka.actor.ActorSystem;
+import akka.event.LoggingAdapter;
+import akka.http.javadsl.model.ws.Message;
+import akka.persistence.query.EventEnvelope;
+import akka.persistence.query.Offset;
+import akka.persistence.query.PersistenceQuery;
+import akka.persistence.query.javadsl.CurrentEventsByPersistenceIdQuery;
+import akka.persistence.query.javadsl.CurrentEventsByTagQuery;
+import akka.persistence.query.javadsl.CurrentPersistenceIdsQuery;
+import akka.persistence.query.journal.leveldb.javadsl.LeveldbReadJournal;
+import akka.stream.BufferOverflowException;
+import akka.stream.Materializer;
+import akka.stream.OverflowStrategy;
+import akka.stream.javadsl.BroadcastHub;
+import akka.stream.javadsl.Flow;
+import akka.stream.javadsl.Sink;
+import akka.stream.javadsl.Source;
+import ch.sbb.ausbildung.eventsourcing.backend.client.FSA.VerkehrsmittelFSA;
+import ch.sbb.ausbildung.eventsourcing.backend.vm.Verkehrsmittel;
+import ch.sbb.ausbildung.eventsourcing.backend.vm.VerkehrsmittelActor;
+import ch.sbb.ausbildung.eventsourcing.backend.vm.VerkehrsmittelActor.Event;
+import ch.sbb.ausbildung.eventsourcing.backend.vm.VerkehrsmittelActor.StoredEvent;
+import ch.sbb.ausbildung.eventsourcing.backend.vm.VerkehrsmittelTagging;
+import com.fasterxml.jackson.annotation.JsonUnwrapped;
+import io.vavr.Lazy;
+import io.vavr.collection.Map;
+import io.vavr.control.Option;
+import lombok.Value;
+
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+
+/**
+ * Node-wide hub streaming the "verkehrsmittel" events to all connected clients: at startup the events already stored
+ * are read once from the event store (all events tagged as verkehrsmittel event, see {@link VerkehrsmittelTagging}, in
+ * the order they were stored), afterwards the live events are pushed by the entities right after they've been stored
+ * (see {@link StoredEvent}, in-process), i.e. without polling the event store. The event store is only queried
+ * for this catch-up and for filling the gaps (e.g. an event stored while the hub subscribed), so the events are applied
+ * in the order of their sequence numbers per entity, each exactly once. If the entities push faster than the hub
+ * applies the events (i.e. the buffer of the pushed events is full), no event is dropped: the hub subscribes anew and
+ * catches up from the event store, per entity from the sequence number of the last event applied on (i.e. only the
+ * events missed are read, not the whole history). If the hub still can't keep up after
+ * {@value #MAX_FAILED_CATCH_UPS} catch-ups in a row (none of them reaching the pushed events), it fails instead of
+ * catching up forever, and so do the streams of the clients.
+ * The events are converted to FSAs and serialized only once
+ * per {@link MessageEncoding} (on demand, i.e. by the first client using it) and then broadcasted to all websocket actors (see <tt>BroadcastHub</tt>).
+ * Before being broadcasted, each event is applied to the {@link VerkehrsmittelProjection}, the current state of all
+ * verkehrsmittel.
+ *
+ * A client which connects later first gets this current state as a single message, followed by the live events of
+ * the hub. The state is taken as soon as the client is attached to the hub (i.e. it receives its first element), so it
+ * already contains every event the client won't receive from the hub anymore. The live events which are contained in
+ * the state as well are dropped by their sequence number (per entity i.e. persistence id), remaining gaps would be
+ * filled from the event store. During idle times the hub emits heartbeats, so that a client doesn't have to wait
+ * for the next event in order to get its state.
+ *
+ * A client which reconnects can resume its stream instead: given the sequence number of the last event it has seen
+ * per verkehrsmittel, it only gets the events it has missed in the meantime (from the event store), again followed
+ * by the live events.
+ *
+ * Both can be restricted to a subset of the verkehrsmittel by a {@link SubscriptionFilter}: the state and the events
+ * of the other verkehrsmittel are filtered out on the server, so they aren't sent to the client at all.
+ *
+ * Every client has its own (bounded) buffer right behind the hub, so a slow client doesn't slow down the others as long
+ * as its buffer isn't full. What happens then is defined by the {@link SlowConsumerPolicy} (see
+ * <code>eventsourcing.websocket</code> in "application.conf"): the buffer either backpressures the hub or fails the
+ * client's stream (with a <tt>BufferOverflowException</tt>) to be handled by the websocket actor.
+ * Optionally the moved and delayed events are conflated per verkehrsmittel while a client lags behind (see
+ * {@link ConflatedEvents}), so its buffer doesn't even fill up with intermediate positions.
+ *
+ * @see <a href="https://doc.akka.io/docs/akka/current/stream/stream-dynamic.html#using-the-broadcasthub">BroadcastHub</a>
+ * @see <a href="https://doc.akka.io/docs/akka/current/persistence-query.html">Persistence Query</a>
+ */
+public class EventHub {
+
+    // buffer of the broadcast hub (power of 2), the slowest client may lag behind by this number of events
+    private static final int HUB_BUFFER_SIZE = 256;
+    // max. idle time of the hub until a heartbeat is emitted
+    private static final Duration HEARTBEAT_INTERVAL = Duration.ofMillis(100);
+    // buffer of the events pushed by the entities (e.g. while catching up), if full the catch-up is run again
+    private static final int PUSHED_BUFFER_SIZE = 10000;
+    // max. number of catch-ups in a row which are overflown by the pushed events before the hub fails
+    static final int MAX_FAILED_CATCH_UPS = 5;
+    // end of a catch-up (not applied)
+    private static final EventEnvelope CAUGHT_UP = new EventEnvelope(Offset.noOffset(), null, 0L, null);
+
+    private final LoggingAdapter log;
+
+    // buffer for the live events of a client (e.g. while it's still receiving the current state) and its policy if full
+    private final int clientBufferSize;
+    private final SlowConsumerPolicy slowConsumerPolicy;
+    // conflate the moved/delayed events per verkehrsmittel for lagging clients
+    private final boolean conflateUpdates;
+
+    // queries on the event store
+    private final CurrentEventsByTagQuery eventsByTag;
+    private final CurrentEventsByPersistenceIdQuery eventsByPersistenceId;
+    private final CurrentPersistenceIdsQuery persistenceIds;
+
+    private final int pushedBufferSize;
+    // catch-ups in a row overflown by the pushed events, reset as soon as a catch-up is complete
+    private final AtomicInteger failedCatchUps = new AtomicInteger();
+    private final Source<Published, NotUsed> liveEvents;
+    // current state, only updated by the hub's stream (before broadcasting the event)
+    private volatile VerkehrsmittelProjection projection = VerkehrsmittelProjection.empty();
+
+    public EventHub(ActorSystem system, Materializer materializer) {
+        // the read journal used for persistence queries on the event store
+        this(system, materializer, PersistenceQuery.get(system)
+                .getReadJournalFor(LeveldbReadJournal.class, LeveldbReadJournal.Identifier()));
+    }
+
+    // the current state is rebuilt from the given event store, e.g. at startup
+    <J extends CurrentEventsByTagQuery & CurrentEventsByPersistenceIdQuery & CurrentPersistenceIdsQuery> EventHub(
+            ActorSystem system, Materializer materializer, J readJournal) {
+        this(system, materializer, readJournal, PUSHED_BUFFER_SIZE);
+    }
+
+    <J extends CurrentEventsByTagQuery & CurrentEventsByPersistenceIdQuery & CurrentPersistenceIdsQuery> EventHub(
+            ActorSystem system, Materializer materializer, J readJournal, int pushedBufferSize) {
+        this.eventsByTag = readJournal;
+        this.eventsByPersistenceId = readJournal;
+        this.persistenceIds = readJournal;
+        this.pushedBufferSize = pushedBufferSize;
+        this.clientBufferSize = system.settings().config().getInt("eventsourcing.websocket.buffer-size");
+        this.slowConsumerPolicy = SlowConsumerPolicy.of(system.settings().config().getString("eventsourcing.websocket.slow-consumer-policy"));
+        this.conflateUpdates = system.settings().config().getBoolean("eventsourcing.websocket.conflate-updates");
+        this.log = system.log();
+
+        // the projection starts empty, i.e. from the beginning of the tagged events, followed by the pushed events;
+        // once the pushed events overflow, the events missed are caught up per entity (from the projection on)
+        this.liveEvents = events(system, eventsByTag.currentEventsByTag(VerkehrsmittelTagging.ALL, Offset.noOffset()))
+                .recoverWithRetries(-1, BufferOverflowException.class, () -> {
+                    if (failedCatchUps.incrementAndGet() > MAX_FAILED_CATCH_UPS) {
+                        log.error("event hub can't keep up with the pushed events, giving up after {} catch-ups in a row",
+                                MAX_FAILED_CATCH_UPS);
+                        return Source.failed(new IllegalStateException("event hub overflown by the pushed events "
+                                + MAX_FAILED_CATCH_UPS + " times in a row"));
+                    }
+                    log.warning("event hub fell behind the pushed events, catching up from the event store ({}. time in a row)",
+                            failedCatchUps.get());
+                    return events(system, eventsNotApplied());
+                })
+                .map(envelope -> {
+                    projection = projection.apply(envelope);
+                    return publish(envelope);
+                })
+                .keepAlive(HEARTBEAT_INTERVAL, () -> Published.HEARTBEAT)
+                .runWith(BroadcastHub.of(Published.class, HUB_BUFFER_SIZE), materializer);
+
+        // keeps the hub running (and consuming) even if there's no client connected
+        liveEvents.runWith(Sink.ignore(), materializer);
+    }
+
+    // the events of the catch-up (skipping the ones already applied), followed by the pushed events;
+    // the stream fails with a BufferOverflowException as soon as the buffer of the pushed events is full
+    private Source<EventEnvelope, NotUsed> events(ActorSystem system, Source<EventEnvelope, NotUsed> catchUp) {
+        // subscribed as soon as the stream is started, i.e. before the catch-up is read (no event is missed in between)
+        final Source<StoredEvent, NotUsed> pushedEvents = Source.<StoredEvent>actorRef(pushedBufferSize, OverflowStrategy.fail())
+                .mapMaterializedValue(subscriber -> {
+                    system.eventStream().subscribe(subscriber, StoredEvent.class);
+                    return NotUsed.getInstance();
+                });
+        return catchUp
+                // the projection is up to date, as the previous element has already been applied
+                .filter(envelope -> envelope.sequenceNr() > projection.sequenceNrOf(VerkehrsmittelProjection.vmNummerOf(envelope)))
+                // marks the end of the catch-up, i.e. it hasn't been overflown by the pushed events
+                .concat(Source.single(CAUGHT_UP))
+                .filter(envelope -> {
+                    if (envelope == CAUGHT_UP) {
+                        failedCatchUps.set(0);
+                        return false;
+                    }
+                    return true;
+                })
+                .concat(pushedEvents.via(inSequence()));
+    }
+
+    // the events stored after the ones applied to the projection, per entity (the entities created since included)
+    private Source<EventEnvelope, NotUsed> eventsNotApplied() {
+        return persistenceIds.currentPersistenceIds()
+                .filter(persistenceId -> persistenceId.startsWith(VerkehrsmittelActor.PERSISTENCE_ID_PREFIX))
+                .flatMapConcat(persistenceId -> eventsByPersistenceId.currentEventsByPersistenceId(persistenceId,
+                        projection.sequenceNrOf(VerkehrsmittelActor.vmNummerOf(persistenceId)) + 1, Long.MAX_VALUE));
+    }
+
+    // the live events of the hub (as broadcasted to the clients)
+    Source<Published, NotUsed> liveEvents() {
+        return liveEvents;
+    }
+
+    // number of catch-ups in a row overflown by the pushed events so far
+    int failedCatchUps() {
+        return failedCatchUps.get();
+    }
+
+    // the current state of all verkehrsmittel (incl. the indexes), e.g. for the queries of the http api
+    VerkehrsmittelProjection currentState() {
+        return projection;
+    }
+
+    // the current state of all verkehrsmittel by vmNummer, e.g. for the "Verkehrsmittel" region (GetState)
+    public Map<Integer, Verkehrsmittel> currentVerkehrsmittel() {
+        return projection.getVerkehrsmittel();
+    }
+
+    /**
+     * The current state of all (matching) verkehrsmittel (as a single message), followed by the live events
+     * (each event exactly once and in order per entity).
+     */
+    Source<Message, NotUsed> currentStateAndEvents(SubscriptionFilter filter, MessageEncoding encoding, ClientMetrics metrics) {
+        return attached(filter, encoding, metrics, state -> Source.single(stateMessage(state, filter, encoding)),
+                VerkehrsmittelProjection::getSequenceNrs);
+    }
+
+    /**
+     * The events missed since the given sequence numbers (last event seen per vmNummer) of the matching
+     * verkehrsmittel, an entity unknown to the client as its current state (single created event), followed by the
+     * live events (each event exactly once and in order per entity).
+     */
+    Source<Message, NotUsed> eventsAfter(Map<Integer, Long> lastSequenceNrs, SubscriptionFilter filter, MessageEncoding encoding,
+                                         ClientMetrics metrics) {
+        return attached(filter, encoding, metrics,
+                state -> missedEvents(state, lastSequenceNrs, filter, encoding),
+                state -> state.getSequenceNrs().merge(lastSequenceNrs, Math::max));
+    }
+
+    SlowConsumerPolicy getSlowConsumerPolicy() {
+        return slowConsumerPolicy;
+    }
+
+    // attaches to the hub and starts with the messages derived from the current state as soon as attached
+    private Source<Message, NotUsed> attached(SubscriptionFilter filter, MessageEncoding encoding, ClientMetrics metrics,
+                                              Function<VerkehrsmittelProjection, Source<Message, NotUsed>> initialMessages,
+                                              Function<VerkehrsmittelProjection, Map<Integer, Long>> sentSequenceNrs) {
+        metrics.resetBuffer();
+        return liveEvents
+                .map(published -> {
+                    metrics.buffered();
+                    return published;
+                })
+                .buffer(clientBufferSize, slowConsumerPolicy.overflowStrategy())
+                .map(published -> {
+                    metrics.unbuffered();
+                    return published;
+                })
+                .prefixAndTail(1)
+                .flatMapConcat(attached -> {
+                    // attached to the hub -> the state contains all events which won't be received from the hub
+                    final VerkehrsmittelProjection state = projection;
+                    return initialMessages.apply(state)
+                            .concat(Source.from(attached.first())
+                                    .concat(attached.second())
+                                    .filterNot(Published::isHeartbeat)
+                                    .via(withoutGapsAndDuplicates(sentSequenceNrs.apply(state).toJavaMap()))
+                                    .filter(published -> filter.matches(published.getVerkehrsmittel()))
+                                    .via(conflateUpdates ? ConflatedEvents.flow(metrics) : Flow.create())
+                                    .map(published -> published.getMessage(encoding)));
+                });
+    }
+
+    // drops the pushed events already applied to the projection (catch-up) and fills the gaps from the event store
+    private Flow<StoredEvent, EventEnvelope, NotUsed> inSequence() {
+        return Flow.<StoredEvent>create().flatMapConcat(stored -> {
+            // the projection is up to date, as the previous element has already been applied
+            final long lastSequenceNr = projection.sequenceNrOf(stored.getEvent().getVmNummer());
+            if (stored.getSequenceNr() <= lastSequenceNr) {
+                return Source.empty();
+            }
+            // the offset in the tagged events isn't known for a pushed event (and not needed, see eventsNotApplied())
+            final Offset offset = Offset.noOffset();
+            final Source<EventEnvelope, NotUsed> event = Source.single(
+                    new EventEnvelope(offset, stored.getPersistenceId(), stored.getSequenceNr(), stored.getEvent()));
+            if (stored.getSequenceNr() == lastSequenceNr + 1) {
+                return event;
+            }
+            return eventsByPersistenceId.currentEventsByPersistenceId(stored.getPersistenceId(), lastSequenceNr + 1, stored.getSequenceNr() - 1)
+                    .map(missed -> new EventEnvelope(offset, missed.persistenceId(), missed.sequenceNr(), missed.event()))
+                    .concat(event);
+        });
+    }
+
+    // events (from event store) which are contained in the state but newer than the given sequence numbers
+    // the events missed per matching verkehrsmittel (replayed from the event store), an unknown one as created by now
+    private Source<Message, NotUsed> missedEvents(VerkehrsmittelProjection state, Map<Integer, Long> lastSequenceNrs,
+                                                  SubscriptionFilter filter, MessageEncoding encoding) {
+        return Source.from(state.getVerkehrsmittel().values().filter(filter::matches))
+                .flatMapConcat(vm -> {
+                    final long sequenceNr = state.sequenceNrOf(vm.getVmNummer());
+                    final Option<Long> lastSequenceNr = lastSequenceNrs.get(vm.getVmNummer());
+                    if (lastSequenceNr.isEmpty()) {
+                        return Source.single(encoding.encode(VerkehrsmittelFSA.event(FSA.Events.VM_CREATED, vm, vm.getVmNummer(), sequenceNr)));
+                    }
+                    return eventsByPersistenceId.currentEventsByPersistenceId(VerkehrsmittelActor.persistenceIdOf(vm.getVmNummer()),
+                            lastSequenceNr.get() + 1, sequenceNr)
+                            .map(envelope -> publish(envelope).getMessage(encoding));
+                });
+    }
+
+    // drops the events already sent and fills the gaps from event store (per vmNummer)
+    private Flow<Published, Published, NotUsed> withoutGapsAndDuplicates(java.util.Map<Integer, Long> lastSequenceNrs) {
+        return Flow.<Published>create().flatMapConcat(published -> {
+            final long lastSequenceNr = lastSequenceNrs.getOrDefault(published.getVmNummer(), 0L);
+            if (published.getSequenceNr() <= lastSequenceNr) {
+                return Source.empty();
+            }
+            lastSequenceNrs.put(published.getVmNummer(), published.getSequenceNr());
+            if (published.getSequenceNr() == lastSequenceNr + 1) {
+                return Source.single(published);
+            }
+            return eventsByPersistenceId.currentEventsByPersistenceId(published.getPersistenceId(), lastSequenceNr + 1, published.getSequenceNr() - 1)
+                    .map(this::publish)
+                    .concat(Source.single(published));
+        });
+    }
+
+    private static Message stateMessage(VerkehrsmittelProjection state, SubscriptionFilter filter, MessageEncoding encoding) {
+        final FSA action = VerkehrsmittelFSA.action(FSA.Events.VM_STATE, state.getVerkehrsmittel().values()
+                .filter(filter::matches)
+                .map(vm -> new StateEntry(vm, state.sequenceNrOf(vm.getVmNummer())))
+                .toList());
+        return encoding.encode(action);
+    }
+
+    // converts the event into the appropriate action type, serialized on demand (once for all clients per encoding)
+    private Published publish(EventEnvelope envelope) {
+        final FSA action = toAction(envelope.event(), envelope.sequenceNr());
+        // the verkehrsmittel concerned (as projected), used to filter the events per client
+        final int vmNummer = VerkehrsmittelProjection.vmNummerOf(envelope);
+        final Verkehrsmittel verkehrsmittel = envelope.event() instanceof Event
+                ? projection.getVerkehrsmittel().get(vmNummer).getOrNull()
+                : null;
+        return new Published(envelope.persistenceId(), vmNummer, envelope.sequenceNr(), action, verkehrsmittel,
+                Lazy.of(() -> MessageEncoding.JSON.encode(action)), Lazy.of(() -> MessageEncoding.CBOR.encode(action)));
+    }
+
+    private static FSA toAction(Object event, long sequenceNr) {
+        if (event instanceof Event.VerkehrsmittelCreated) {
+            Event.VerkehrsmittelCreated created = (Event.VerkehrsmittelCreated) event;
+            return VerkehrsmittelFSA.event(FSA.Events.VM_CREATED, created.getVerkehrsmittel(), created.getVmNummer(), sequenceNr);
+        } else if (event instanceof Event.VerkehrsmittelMoved) {
+            Event.VerkehrsmittelMoved moved = (Event.VerkehrsmittelMoved) event;
+            return VerkehrsmittelFSA.event(FSA.Events.VM_MOVED, moved.getAktuellePosition(), moved.getVmNummer(), sequenceNr);
+        } else if (event instanceof Event.VerkehrsmittelDelayed) {
+            Event.VerkehrsmittelDelayed delayed = (Event.VerkehrsmittelDelayed) event;
+            return VerkehrsmittelFSA.event(FSA.Events.VM_DELAYED, delayed.getDelay(), delayed.getVmNummer(), sequenceNr);
+        } else {
+            return VerkehrsmittelFSA.error("server_error", "unhandled event type: " + event);
+        }
+    }
+
+    // entry of the state message: the verkehrsmittel incl. the sequence number of its last event
+    @Value
+    static class StateEntry {
+        @JsonUnwrapped
+        Verkehrsmittel verkehrsmittel;
+        long sequenceNr;
+    }
+
+    // event as published to the clients (action incl. its serialized messages)
+    @Value
+    static class Published {
+        // emitted by the hub while there are no events
+        static final Published HEARTBEAT = new Published(null, 0, 0L, null, null, null, null);
+
+        String persistenceId;
+        int vmNummer;
+        long sequenceNr;
+        FSA action;
+        Verkehrsmittel verkehrsmittel;
+        Lazy<Message> jsonMessage;
+        Lazy<Message> cborMessage;
+
+        Message getMessage(MessageEncoding encoding) {
+            return encoding == MessageEncoding.CBOR ? cborMessage.get() : jsonMessage.get();
+        }
+
+        boolean isHeartbeat() {
+            return this == HEARTBEAT;
+        }
+    }
+}
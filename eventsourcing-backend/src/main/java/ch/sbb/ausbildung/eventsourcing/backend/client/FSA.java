@@ -1,15 +1,23 @@
 
 package ch.sbb.ausbildung.eventsourcing.backend.client;
 
+import akka.util.ByteString;
+import com.fasterxml.jackson.annotation.JsonInclude;
 import com.fasterxml.jackson.annotation.JsonSubTypes;
 import com.fasterxml.jackson.annotation.JsonTypeId;
 import com.fasterxml.jackson.annotation.JsonTypeInfo;
+import com.fasterxml.jackson.core.JsonGenerator;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.databind.SerializationFeature;
+import com.fasterxml.jackson.databind.SerializerProvider;
 import com.fasterxml.jackson.databind.annotation.JsonDeserialize;
+import com.fasterxml.jackson.databind.module.SimpleModule;
+import com.fasterxml.jackson.databind.ser.std.StdSerializer;
+import com.fasterxml.jackson.dataformat.cbor.CBORFactory;
 import com.fasterxml.jackson.datatype.jsr310.JavaTimeModule;
 import com.fasterxml.jackson.module.paramnames.ParameterNamesModule;
 import io.reactivex.annotations.Nullable;
+import io.vavr.collection.Seq;
 import io.vavr.jackson.datatype.VavrModule;
 import lombok.AllArgsConstructor;
 import lombok.NonNull;
@@ -17,6 +25,8 @@ import lombok.Value;
 import lombok.experimental.NonFinal;
 import scala.Immutable;
 
+import java.io.IOException;
+
 import static com.fasterxml.jackson.annotation.JsonTypeInfo.As.PROPERTY;
 import static com.fasterxml.jackson.annotation.JsonTypeInfo.Id.NAME;
 
@@ -41,6 +51,8 @@ public class FSA<P, M> implements Immutable {
         String VM_MOVED = "verkehrsmittel_moved";
         String VM_ARRIVED = "verkehrsmittel_arrived";
         String VM_DELAYED = "verkehrsmittel_delayed";
+        // current state of all verkehrsmittel (sent once, before the live events)
+        String VM_STATE = "verkehrsmittel_state";
     }
 
     // user commands sent from UI (to backend)
@@ -48,6 +60,11 @@ public class FSA<P, M> implements Immutable {
         String LOAD_USERNAME = "load_username";
         String LOAD_VERKEHRSMITTEL = "load_verkehrsmittel";
         String DELAY_VERKEHRSMITTEL = "delay_verkehrsmittel";
+        // resume the event stream after a reconnect (payload: sequenceNrs: vmNummer -> sequence number of the last event
+        // seen, filter: the filter of the subscription, see SubscriptionFilter)
+        String RESUME_VERKEHRSMITTEL = "resume_verkehrsmittel";
+        // subscribe to a subset of the verkehrsmittel (payload: filter, see SubscriptionFilter)
+        String SUBSCRIBE_VERKEHRSMITTEL = "subscribe_verkehrsmittel";
     }
 
     // event types from backend, as a result to a user command
@@ -161,7 +178,10 @@ public class FSA<P, M> implements Immutable {
             @JsonSubTypes.Type(value = VerkehrsmittelFSA.class, name = Events.VM_MOVED),
             @JsonSubTypes.Type(value = VerkehrsmittelFSA.class, name = Events.VM_ARRIVED),
             @JsonSubTypes.Type(value = VerkehrsmittelFSA.class, name = Events.VM_DELAYED),
+            @JsonSubTypes.Type(value = VerkehrsmittelFSA.class, name = Events.VM_STATE),
             @JsonSubTypes.Type(value = VerkehrsmittelFSA.class, name = UserCommands.DELAY_VERKEHRSMITTEL),
+            @JsonSubTypes.Type(value = VerkehrsmittelFSA.class, name = UserCommands.RESUME_VERKEHRSMITTEL),
+            @JsonSubTypes.Type(value = VerkehrsmittelFSA.class, name = UserCommands.SUBSCRIBE_VERKEHRSMITTEL),
             // Frontend actions
             @JsonSubTypes.Type(value = UserFSA.class, name = UserCommands.LOAD_VERKEHRSMITTEL),
             @JsonSubTypes.Type(value = UserFSA.class, name = UserCommands.LOAD_USERNAME),
@@ -169,8 +189,21 @@ public class FSA<P, M> implements Immutable {
     })
     public static class VerkehrsmittelFSA<T> extends FSA<T, Integer> {
 
-        VerkehrsmittelFSA(String type, boolean error, T payload, Integer meta) {
+        /**
+         * Sequence number of the event in the event store (per verkehrsmittel, only set on events).
+         * The client keeps the last one seen in order to resume the event stream after a reconnect.
+         */
+        @Nullable
+        @JsonInclude(JsonInclude.Include.NON_NULL)
+        private final Long sequenceNr;
+
+        VerkehrsmittelFSA(String type, boolean error, T payload, Integer meta, Long sequenceNr) {
             super(type, error, payload, meta);
+            this.sequenceNr = sequenceNr;
+        }
+
+        VerkehrsmittelFSA(String type, boolean error, T payload, Integer meta) {
+            this(type, error, payload, meta, null);
         }
 
         VerkehrsmittelFSA(String type, T payload) {
@@ -189,6 +222,14 @@ public class FSA<P, M> implements Immutable {
             return new VerkehrsmittelFSA(typ, false, payload, meta);
         }
 
+        static <T> VerkehrsmittelFSA event(final String typ, final T payload, final Integer meta, final long sequenceNr) {
+            return new VerkehrsmittelFSA<>(typ, false, payload, meta, sequenceNr);
+        }
+
+        public Long getSequenceNr() {
+            return sequenceNr;
+        }
+
         public static VerkehrsmittelFSA error(final String typ, final Error error) {
             return new VerkehrsmittelFSA(typ, true, error, null);
         }
@@ -226,14 +267,24 @@ public class FSA<P, M> implements Immutable {
 
 
     // JSON utilities
-    private static ObjectMapper defaultMapper = new ObjectMapper()
-            .registerModule(new ParameterNamesModule())
-            .registerModule(new JavaTimeModule())
-            // serialize dates in ISO-8601 format ("e.g. 2017-05-19T16:54:16.29+02:00")
-            .disable(SerializationFeature.WRITE_DATES_AS_TIMESTAMPS)
-            .disable(SerializationFeature.WRAP_EXCEPTIONS)
-            .registerModule(new VavrModule());
+    private static ObjectMapper defaultMapper = configure(new ObjectMapper());
+    // binary JSON (CBOR), same configuration
+    private static ObjectMapper cborMapper = configure(new ObjectMapper(new CBORFactory()));
+
+    private static ObjectMapper configure(final ObjectMapper mapper) {
+        return mapper
+                .registerModule(new ParameterNamesModule())
+                .registerModule(new JavaTimeModule())
+                // serialize dates in ISO-8601 format ("e.g. 2017-05-19T16:54:16.29+02:00")
+                .disable(SerializationFeature.WRITE_DATES_AS_TIMESTAMPS)
+                .disable(SerializationFeature.WRAP_EXCEPTIONS)
+                .registerModule(new VavrModule())
+                // registered after the vavr module in order to take precedence
+                .registerModule(new SimpleModule().addSerializer(new SeqSerializer()));
+    }
 
+    // written by the mapper itself (its serializers are cached per runtime type): a writer pre-built for the (polymorphic)
+    // FSA type is slower for the small events, e.g. a moved event
     static <T> String writeValueAsString(final T o) {
         try {
             return defaultMapper.writeValueAsString(o);
@@ -242,6 +293,15 @@ public class FSA<P, M> implements Immutable {
         }
     }
 
+    // the bytes written (into jackson's recycled buffers) are copied only once, into the array wrapped by the ByteString
+    static <T> ByteString writeValueAsCbor(final T o) {
+        try {
+            return ByteString.fromArrayUnsafe(cborMapper.writeValueAsBytes(o));
+        } catch (final Exception e) {
+            throw new SerialisationException(e);
+        }
+    }
+
     static <T> T readValueFor(final String content, final Class<T> valueType) {
         try {
             return defaultMapper.readerFor(valueType).readValue(content);
@@ -250,6 +310,24 @@ public class FSA<P, M> implements Immutable {
         }
     }
 
+    // lean serializer of vavr sequences (e.g. fahrtpunkte): written element by element, without any conversion
+    // (the one of the vavr module resolves the collection type again for every value written)
+    private static class SeqSerializer extends StdSerializer<Seq> {
+
+        SeqSerializer() {
+            super(Seq.class);
+        }
+
+        @Override
+        public void serialize(final Seq seq, final JsonGenerator gen, final SerializerProvider provider) throws IOException {
+            gen.writeStartArray(seq.size());
+            for (final Object element : seq) {
+                provider.defaultSerializeValue(element, gen);
+            }
+            gen.writeEndArray();
+        }
+    }
+
     private static class SerialisationException extends RuntimeException {
         SerialisationException(Throwable cause) {
             super(cause);
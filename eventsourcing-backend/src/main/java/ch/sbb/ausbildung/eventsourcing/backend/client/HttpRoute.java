@@ -9,19 +9,27 @@ import akka.actor.Props;
 import akka.http.javadsl.ConnectHttp;
 import akka.http.javadsl.Http;
 import akka.http.javadsl.model.ContentTypes;
+import akka.http.javadsl.model.HttpEntities;
 import akka.http.javadsl.model.HttpRequest;
 import akka.http.javadsl.model.HttpResponse;
+import akka.http.javadsl.model.StatusCodes;
 import akka.http.javadsl.model.ws.Message;
+import akka.http.javadsl.server.PathMatchers;
 import akka.http.javadsl.server.Route;
+import akka.http.javadsl.unmarshalling.StringUnmarshallers;
 import akka.pattern.BackoffOpts;
 import akka.stream.ActorMaterializer;
 import akka.stream.Materializer;
-import akka.stream.OverflowStrategy;
+import akka.stream.KillSwitches;
 import akka.stream.javadsl.CoupledTerminationFlow;
 import akka.stream.javadsl.Flow;
+import akka.stream.javadsl.Keep;
+import akka.stream.javadsl.MergeHub;
 import akka.stream.javadsl.Sink;
 import akka.stream.javadsl.Source;
 import akka.util.ByteString;
+import akka.util.ByteStringBuilder;
+import io.vavr.control.Option;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import scala.Tuple2;
@@ -37,7 +45,11 @@ import static akka.http.javadsl.server.Directives.extractActorSystem;
 import static akka.http.javadsl.server.Directives.extractMaterializer;
 import static akka.http.javadsl.server.Directives.get;
 import static akka.http.javadsl.server.Directives.handleWebSocketMessages;
+import static akka.http.javadsl.server.Directives.parameterMap;
+import static akka.http.javadsl.server.Directives.parameterOptional;
 import static akka.http.javadsl.server.Directives.path;
+import static akka.http.javadsl.server.Directives.pathEndOrSingleSlash;
+import static akka.http.javadsl.server.Directives.pathPrefix;
 import static akka.http.javadsl.server.Directives.pathSingleSlash;
 import static akka.http.javadsl.server.Directives.route;
 
@@ -46,6 +58,8 @@ import static akka.http.javadsl.server.Directives.route;
  * Main part here is the <code>websocketRoute</code> which accepts incoming websocket requests (ws://..)
  * from client and creates a corresponding websocket-actor (handler) for it, i.e. each client has its own
  * websocket actor handling the bidirectional communication between backend and frontend.
+ * Besides, the <code>queryRoute</code> answers http queries on the current state of the verkehrsmittel (e.g. polled by
+ * station boards).
  *
  * @see <a href="https://doc.akka.io/docs/akka-http/current/routing-dsl/index.html#routing-dsl">Akka Http (Routing DSL)</a>
  * @see <a href="https://doc.akka.io/docs/akka-http/current/server-side/websocket-support.html#server-websocket-support">Akka Websocket Support</a>
@@ -53,19 +67,35 @@ import static akka.http.javadsl.server.Directives.route;
 public class HttpRoute {
 
     private static final String WEBSOCKET_PATH_SEGENT = "websocket";
+    private static final String VERKEHRSMITTEL_PATH_SEGMENT = "verkehrsmittel";
+    // number of entries serialized into one chunk of a (streamed) query response
+    private static final int RESPONSE_CHUNK_SIZE = 100;
+    private static final ByteString ARRAY_START = ByteString.fromString("[");
+    private static final ByteString ARRAY_SEPARATOR = ByteString.fromString(",");
+    private static final ByteString ARRAY_END = ByteString.fromString("]");
+    // buffer of each stream into the outbound hub (events resp. replies to the client)
+    private static final int OUTGOING_BUFFER_SIZE = 16;
     private static final Logger logger = LoggerFactory.getLogger(HttpRoute.class);
 
 
-    private Route createWebsocketRoute(ActorRef vmActor) {
+    private Route createWebsocketRoute(ActorRef vmActor, EventHub eventHub) {
         return route(
                 indexPage("",
-                        WEBSOCKET_PATH_SEGENT
+                        WEBSOCKET_PATH_SEGENT,
+                        VERKEHRSMITTEL_PATH_SEGMENT
                 ),
+                queryRoute(eventHub),
                 path(WEBSOCKET_PATH_SEGENT, () ->
                         get(() ->
-                                extractActorSystem(actorSystem ->
-                                        extractMaterializer(materializer ->
-                                                handleWebSocketMessages(websocketFlow(actorSystem, vmActor, materializer)))
+                                parameterMap(queryParameters ->
+                                        extractActorSystem(actorSystem ->
+                                                extractMaterializer(materializer ->
+                                                        ClientOptions.of(queryParameters)
+                                                                .map(options -> handleWebSocketMessages(websocketFlow(actorSystem,
+                                                                        vmActor, eventHub, options, materializer)))
+                                                                .getOrElse(() -> complete(StatusCodes.BAD_REQUEST,
+                                                                        "unknown encoding (json or cbor)")))
+                                        )
                                 )
                         )
                 )
@@ -73,8 +103,60 @@ public class HttpRoute {
     }
 
     /**
-     * Creates a flow which streams messages from the frontend directly to the {@link WebsocketActor} and forwards
-     * replies from the backend to the input queue of the websocket actor (<tt>Source.queue(..)</tt> )
+     * Query api on the current state of the verkehrsmittel, answered from the projection of the {@link EventHub}
+     * (by its indexes, see {@link VerkehrsmittelIndex}):<ul>
+     *     <li><tt>GET /verkehrsmittel/711</tt>: the verkehrsmittel with the given vmNummer (404 if unknown)</li>
+     *     <li><tt>GET /verkehrsmittel?vmArt=ICN&amp;station=ZUE&amp;minDelay=5</tt>: all verkehrsmittel matching the
+     *     given criteria (each optional): of the vmArt, currently at or due to pass the station, delayed by at least
+     *     the given minutes (a minDelay of 0 or less: delayed or not)</li>
+     * </ul>
+     * The verkehrsmittel are returned as JSON (like the entries of the state sent to the websocket clients, i.e. incl.
+     * the sequence number of their last event), the list is streamed as JSON array (chunked, serialized while sent).
+     */
+    private static Route queryRoute(EventHub eventHub) {
+        return pathPrefix(VERKEHRSMITTEL_PATH_SEGMENT, () -> route(
+                path(PathMatchers.integerSegment(), vmNummer ->
+                        get(() -> {
+                            final VerkehrsmittelProjection state = eventHub.currentState();
+                            return state.getVerkehrsmittel().get(vmNummer)
+                                    .map(vm -> complete(HttpResponse.create().withEntity(ContentTypes.APPLICATION_JSON,
+                                            ByteString.fromString(FSA.writeValueAsString(new EventHub.StateEntry(vm, state.sequenceNrOf(vmNummer)))))))
+                                    .getOrElse(() -> complete(StatusCodes.NOT_FOUND));
+                        })
+                ),
+                pathEndOrSingleSlash(() ->
+                        get(() ->
+                                parameterOptional("vmArt", vmArt ->
+                                        parameterOptional("station", station ->
+                                                parameterOptional(StringUnmarshallers.INTEGER, "minDelay", minDelay ->
+                                                        complete(HttpResponse.create().withEntity(HttpEntities.create(ContentTypes.APPLICATION_JSON,
+                                                                jsonArray(eventHub.currentState(), Option.ofOptional(vmArt),
+                                                                        Option.ofOptional(station), Option.ofOptional(minDelay)))))
+                                                )
+                                        )
+                                )
+                        )
+                )
+        ));
+    }
+
+    // the matching verkehrsmittel of the given state as JSON array, serialized while streamed (several per chunk)
+    private static Source<ByteString, NotUsed> jsonArray(VerkehrsmittelProjection state, Option<String> vmArt,
+                                                         Option<String> station, Option<Integer> minDelay) {
+        return Source.fromIterator(() -> state.query(vmArt, station, minDelay))
+                .map(vm -> ByteString.fromString(FSA.writeValueAsString(new EventHub.StateEntry(vm, state.sequenceNrOf(vm.getVmNummer())))))
+                .intersperse(ARRAY_START, ARRAY_SEPARATOR, ARRAY_END)
+                .grouped(RESPONSE_CHUNK_SIZE)
+                .map(parts -> {
+                    final ByteStringBuilder chunk = ByteString.createBuilder();
+                    parts.forEach(chunk::append);
+                    return chunk.result();
+                });
+    }
+
+    /**
+     * Creates a flow which streams messages from the frontend directly to the {@link WebsocketActor} and streams
+     * the events and replies from the websocket actor to the client (<tt>MergeHub.of(..)</tt>, backpressured by the client)
      * <p>
      * <pre>
      *                  +-----------------------+
@@ -85,21 +167,24 @@ public class HttpRoute {
      *                  |  +-----------------+  |
      *                  |                       |
      *                  |  +-----------------+  |
-     *  WS to client   <~~ | Queue [Source]  |  |  <~~ Add to Queue (uses a SourceQueueWithComplete, from WebsocketActor)
+     *  WS to client   <~~ | Hub [Source]    |  |  <~~ Streams into the hub's Sink (events and replies, from WebsocketActor)
      *                  |  +-----------------+  |
      *                  +-----------------------+
      *
      * </pre>
      *
      * @param actorSystem  reference to the Akka Actor System
+     * @param eventHub     the node-wide hub streaming the events to all clients
+     * @param options      the options of the connection (negotiated by the client)
      * @param materializer the materializer to use.
      */
-    private static Flow<Message, Message, Tuple2<NotUsed, NotUsed>> websocketFlow(ActorSystem actorSystem, ActorRef vmActor, Materializer materializer) {
+    private static Flow<Message, Message, Tuple2<NotUsed, NotUsed>> websocketFlow(ActorSystem actorSystem, ActorRef vmActor, EventHub eventHub,
+                                                                           ClientOptions options, Materializer materializer) {
 
         // Erstelle Backoff Supervisor, damit neuer Actor einen Parent hat auf dem eine Supervision-Strategie definiert werden kann.
         // Der Aktor soll nie neu starten - weil das Websocket dann nicht mehr verbunden wäre.
         final Props supervisorProps = BackoffOpts.onFailure(
-                WebsocketActor.props(vmActor, materializer),
+                WebsocketActor.props(vmActor, eventHub, options, materializer),
                 "websocketActor",
                 Duration.create(3, TimeUnit.SECONDS),
                 Duration.create(20, TimeUnit.SECONDS),
@@ -111,11 +196,11 @@ public class HttpRoute {
         // Create ActorRef as Sink. Send ConnectionError when Stream breaks.
         Sink<Message, NotUsed> incomingSink = Sink.actorRef(actor, new WebsocketActor.ConnectionError());
 
-        // send the materialized Queue to the actor when ready.
-        Source<Message, NotUsed> outgoingSource = Source.<Message>queue(2000,
-                OverflowStrategy.fail())
-                .mapMaterializedValue(queue -> {
-                    actor.tell(new WebsocketActor.RegisterOutgoingQueue(queue), ActorRef.noSender());
+        // send the materialized Sink (and the switch to close the connection) to the actor when ready.
+        Source<Message, NotUsed> outgoingSource = MergeHub.of(Message.class, OUTGOING_BUFFER_SIZE)
+                .viaMat(KillSwitches.single(), Keep.both())
+                .mapMaterializedValue(sinkAndSwitch -> {
+                    actor.tell(new WebsocketActor.RegisterOutgoing(sinkAndSwitch.first(), sinkAndSwitch.second()), ActorRef.noSender());
                     return NotUsed.getInstance();
                 });
 
@@ -124,9 +209,10 @@ public class HttpRoute {
     }
 
     // bind HTTP port to localhost and listens for incoming data to stream (via flow)
-    public CompletionStage<Void> bindHttp(ActorMaterializer materializer, ActorSystem system, final ActorRef vmActor) {
+    public CompletionStage<Void> bindHttp(ActorMaterializer materializer, ActorSystem system, final ActorRef vmActor,
+                                          final EventHub eventHub) {
         final Http http = Http.get(system);
-        final Flow<HttpRequest, HttpResponse, NotUsed> routeFlow = this.createWebsocketRoute(vmActor).flow(system, materializer);
+        final Flow<HttpRequest, HttpResponse, NotUsed> routeFlow = this.createWebsocketRoute(vmActor, eventHub).flow(system, materializer);
         int port = system.settings().config().getInt("eventsourcing.http.port");
 
         return http.bindAndHandle(routeFlow, ConnectHttp.toHost("0.0.0.0", port), materializer)
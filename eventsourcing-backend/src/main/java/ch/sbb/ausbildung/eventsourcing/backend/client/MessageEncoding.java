@@ -0,0 +1,72 @@
+
+package ch.sbb.ausbildung.eventsourcing.backend.client;
+
+import akka.http.javadsl.model.ws.BinaryMessage;
+import akka.http.javadsl.model.ws.Message;
+import akka.http.javadsl.model.ws.TextMessage;
+import akka.util.ByteString;
+import akka.util.ByteStringBuilder;
+import io.vavr.collection.Stream;
+import io.vavr.control.Option;
+
+import java.util.List;
+import java.util.stream.Collectors;
+
+/**
+ * Encoding of the FSAs sent to a client, negotiated by the client (see {@link ClientOptions}):<ul>
+ *     <li><tt>json</tt> (default): JSON as text message</li>
+ *     <li><tt>cbor</tt>: <a href="https://cbor.io">CBOR</a> (binary JSON, same structure) as binary message, i.e.
+ *     smaller payloads and cheaper to encode resp. decode</li>
+ * </ul>
+ * A JSON message is encoded into a String: a (strict) text message of akka-http can only be created from a String
+ * (or a stream of Strings), the ByteString the text is finally written to is encoded by akka-http itself.
+ */
+enum MessageEncoding {
+
+    JSON {
+        @Override
+        Message encode(FSA action) {
+            return TextMessage.create(FSA.writeValueAsString(action));
+        }
+
+        // JSON array of the (already serialized) FSAs
+        @Override
+        Message batch(List<Message> messages) {
+            return TextMessage.create(messages.stream()
+                    .map(message -> message.asTextMessage().getStrictText())
+                    .collect(Collectors.joining(",", "[", "]")));
+        }
+    },
+
+    CBOR {
+        // start and end of an array of indefinite length (RFC 7049, 2.2.1)
+        private static final byte ARRAY_START = (byte) 0x9f;
+        private static final byte ARRAY_END = (byte) 0xff;
+
+        @Override
+        Message encode(FSA action) {
+            return BinaryMessage.create(FSA.writeValueAsCbor(action));
+        }
+
+        // CBOR array of the (already serialized) FSAs
+        @Override
+        Message batch(List<Message> messages) {
+            final ByteStringBuilder frame = ByteString.createBuilder().putByte(ARRAY_START);
+            messages.forEach(message -> frame.append(message.asBinaryMessage().getStrictData()));
+            return BinaryMessage.create(frame.putByte(ARRAY_END).result());
+        }
+    };
+
+    // serializes the FSA into a message
+    abstract Message encode(FSA action);
+
+    // combines several messages (FSAs) of this encoding into a single one (array)
+    abstract Message batch(List<Message> messages);
+
+    // encoding by its name in the query parameter (e.g. "cbor"), JSON if none is given, none if the name is unknown
+    static Option<MessageEncoding> of(String name) {
+        return name == null
+                ? Option.of(JSON)
+                : Stream.of(values()).find(encoding -> encoding.name().equalsIgnoreCase(name.trim()));
+    }
+}
@@ -0,0 +1,38 @@
+
+package ch.sbb.ausbildung.eventsourcing.backend.client;
+
+import akka.stream.OverflowStrategy;
+
+/**
+ * Policy applied to a client which can't keep up with the live events, i.e. whose buffer (see
+ * <code>eventsourcing.websocket.buffer-size</code> in "application.conf") is full:<ul>
+ *     <li><tt>drop-connection</tt> (default): the websocket connection is closed, the client reconnects and resumes its
+ *     stream with the events it has missed</li>
+ *     <li><tt>conflate</tt>: the client's stream is restarted with the current state (a single message, i.e. all the
+ *     events it has missed conflated) followed by the live events</li>
+ *     <li><tt>buffer</tt>: the client's stream is backpressured, hence the event hub (and all other clients) are slowed
+ *     down once the hub's buffer is full too. The conflation of the updates (see {@link ConflatedEvents}) doesn't
+ *     prevent this, as a lagging client still gets every created event and an update per verkehrsmittel; therefore
+ *     it's only suitable if all clients are known to keep up (e.g. internal consumers)</li>
+ * </ul>
+ */
+enum SlowConsumerPolicy {
+    BUFFER,
+    DROP_CONNECTION,
+    CONFLATE;
+
+    // policy by its name in the config (e.g. "drop-connection")
+    static SlowConsumerPolicy of(String name) {
+        return valueOf(name.trim().toUpperCase().replace('-', '_'));
+    }
+
+    // strategy of the client's buffer (all but "buffer" fail the stream on overflow)
+    OverflowStrategy overflowStrategy() {
+        return this == BUFFER ? OverflowStrategy.backpressure() : OverflowStrategy.fail();
+    }
+
+    @Override
+    public String toString() {
+        return name().toLowerCase().replace('_', '-');
+    }
+}
@@ -0,0 +1,54 @@
+
+package ch.sbb.ausbildung.eventsourcing.backend.client;
+
+import ch.sbb.ausbildung.eventsourcing.backend.vm.Verkehrsmittel;
+import io.vavr.collection.HashSet;
+import io.vavr.collection.Set;
+import io.vavr.control.Option;
+import lombok.Value;
+
+import java.util.Collection;
+import java.util.Map;
+
+/**
+ * Filter of a client's subscription (see {@link FSA.UserCommands#SUBSCRIBE_VERKEHRSMITTEL}), applied on the server
+ * so a client only receives the state and events of the verkehrsmittel it's interested in.
+ * All given criteria must match, a missing criterion matches all verkehrsmittel:<ul>
+ *     <li><code>vmNummern</code>: one of the given vmNummern (e.g. <tt>[711, 713]</tt>)</li>
+ *     <li><code>vmArt</code>: the given vmArt (e.g. <tt>"ICN"</tt>)</li>
+ *     <li><code>fahrtpunkt</code>: the given station is part of its fahrtpunkte (e.g. <tt>"ZUE"</tt>)</li>
+ * </ul>
+ */
+@Value
+class SubscriptionFilter {
+
+    // filter matching all verkehrsmittel (default)
+    static final SubscriptionFilter ALL = new SubscriptionFilter(HashSet.empty(), Option.none(), Option.none());
+
+    Set<Integer> vmNummern;
+    Option<String> vmArt;
+    Option<String> fahrtpunkt;
+
+    // creates the filter from the payload of the subscribe command (JSON object)
+    static SubscriptionFilter of(Map<String, Object> payload) {
+        if (payload == null) {
+            return ALL;
+        }
+        return new SubscriptionFilter(
+                Option.of((Collection<Number>) payload.get("vmNummern"))
+                        .map(vmNummern -> HashSet.ofAll(vmNummern).map(Number::intValue))
+                        .getOrElse(HashSet.empty()),
+                Option.of((String) payload.get("vmArt")),
+                Option.of((String) payload.get("fahrtpunkt")));
+    }
+
+    boolean matches(Verkehrsmittel vm) {
+        if (vm == null) {
+            // not a verkehrsmittel (e.g. error) -> only matched by a filter without criteria
+            return this.equals(ALL);
+        }
+        return (vmNummern.isEmpty() || vmNummern.contains(vm.getVmNummer()))
+                && vmArt.map(art -> art.equalsIgnoreCase(vm.getVmArt())).getOrElse(true)
+                && fahrtpunkt.map(punkt -> vm.getFahrtpunkte().exists(punkt::equalsIgnoreCase)).getOrElse(true);
+    }
+}
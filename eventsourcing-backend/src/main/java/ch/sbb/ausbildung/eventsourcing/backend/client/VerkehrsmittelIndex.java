@@ -0,0 +1,104 @@
+
+package ch.sbb.ausbildung.eventsourcing.backend.client;
+
+import ch.sbb.ausbildung.eventsourcing.backend.vm.Verkehrsmittel;
+import io.vavr.collection.HashMap;
+import io.vavr.collection.HashSet;
+import io.vavr.collection.Map;
+import io.vavr.collection.Set;
+import lombok.AccessLevel;
+import lombok.AllArgsConstructor;
+import lombok.Value;
+
+/**
+ * Secondary indexes of the {@link VerkehrsmittelProjection}, answering the queries of the http api (see {@link HttpRoute})
+ * without scanning all verkehrsmittel:<ul>
+ *     <li>vmArt -> vmNummern</li>
+ *     <li>station -> vmNummern of the verkehrsmittel currently at or due to pass the station (the rest of their route)</li>
+ *     <li>delay bucket (of {@value #DELAY_BUCKET_SIZE} minutes) -> vmNummern of the delayed verkehrsmittel</li>
+ * </ul>
+ * The indexes are updated for each event by the difference of the verkehrsmittel concerned before and after the event,
+ * i.e. a move only removes the stations passed, a delay only changes the bucket. Vmart and station are case insensitive.
+ *
+ * Like the projection the indexes are immutable (persistent collections), so they can be read by any thread.
+ */
+@Value
+@AllArgsConstructor(access = AccessLevel.PRIVATE)
+class VerkehrsmittelIndex {
+
+    // width of a delay bucket in minutes
+    private static final int DELAY_BUCKET_SIZE = 5;
+
+    private static final VerkehrsmittelIndex EMPTY = new VerkehrsmittelIndex(HashMap.empty(), HashMap.empty(), HashMap.empty());
+
+    Map<String, Set<Integer>> byVmArt;
+    Map<String, Set<Integer>> byStation;
+    Map<Integer, Set<Integer>> byDelayBucket;
+
+    static VerkehrsmittelIndex empty() {
+        return EMPTY;
+    }
+
+    // re-indexes a verkehrsmittel (before resp. after are null if it didn't exist resp. doesn't exist anymore)
+    VerkehrsmittelIndex update(Verkehrsmittel before, Verkehrsmittel after) {
+        final int vmNummer = after != null ? after.getVmNummer() : before.getVmNummer();
+        // same rest of the route (e.g. delayed only) -> the stations are unchanged
+        final boolean samePosition = before != null && after != null && before.remainingFahrtpunkte() == after.remainingFahrtpunkte();
+        return new VerkehrsmittelIndex(
+                reindex(byVmArt, vmNummer, vmArtOf(before), vmArtOf(after)),
+                samePosition ? byStation : reindex(byStation, vmNummer, stationsOf(before), stationsOf(after)),
+                reindex(byDelayBucket, vmNummer, delayBucketOf(before), delayBucketOf(after)));
+    }
+
+    Set<Integer> withVmArt(String vmArt) {
+        return byVmArt.get(vmArt.toUpperCase()).getOrElse(HashSet.empty());
+    }
+
+    Set<Integer> passing(String station) {
+        return byStation.get(station.toUpperCase()).getOrElse(HashSet.empty());
+    }
+
+    // candidates delayed by at least the given minutes (> 0, only the delayed verkehrsmittel are indexed), i.e. all of
+    // the bucket of the minDelay and above (whole buckets, so the delay has to be checked as well)
+    Set<Integer> delayedBy(int minDelay) {
+        if (minDelay <= 0) {
+            throw new IllegalArgumentException("minDelay must be positive: " + minDelay);
+        }
+        final int bucket = minDelay / DELAY_BUCKET_SIZE;
+        return byDelayBucket.filterKeys(key -> key >= bucket)
+                .values()
+                .fold(HashSet.empty(), Set::union);
+    }
+
+    // removes the vmNummer from the keys it isn't indexed by anymore and adds it to the new ones
+    private static <K> Map<K, Set<Integer>> reindex(Map<K, Set<Integer>> index, int vmNummer, Set<K> before, Set<K> after) {
+        final Map<K, Set<Integer>> removed = before.diff(after).foldLeft(index, (updated, key) -> remove(updated, key, vmNummer));
+        return after.diff(before).foldLeft(removed, (updated, key) -> add(updated, key, vmNummer));
+    }
+
+    private static <K> Map<K, Set<Integer>> add(Map<K, Set<Integer>> index, K key, int vmNummer) {
+        return index.put(key, index.get(key).getOrElse(HashSet.empty()).add(vmNummer));
+    }
+
+    // removes the key as soon as there are no more verkehrsmittel indexed by it
+    private static <K> Map<K, Set<Integer>> remove(Map<K, Set<Integer>> index, K key, int vmNummer) {
+        return index.get(key)
+                .map(vmNummern -> vmNummern.remove(vmNummer))
+                .map(vmNummern -> vmNummern.isEmpty() ? index.remove(key) : index.put(key, vmNummern))
+                .getOrElse(index);
+    }
+
+    private static Set<String> vmArtOf(Verkehrsmittel vm) {
+        return vm == null || vm.getVmArt() == null ? HashSet.empty() : HashSet.of(vm.getVmArt().toUpperCase());
+    }
+
+    private static Set<String> stationsOf(Verkehrsmittel vm) {
+        return vm == null ? HashSet.empty() : HashSet.ofAll(vm.remainingFahrtpunkte()).map(String::toUpperCase);
+    }
+
+    private static Set<Integer> delayBucketOf(Verkehrsmittel vm) {
+        return vm == null || vm.getDelay() == null || vm.getDelay() <= 0
+                ? HashSet.empty()
+                : HashSet.of(vm.getDelay() / DELAY_BUCKET_SIZE);
+    }
+}
@@ -0,0 +1,120 @@
+
+package ch.sbb.ausbildung.eventsourcing.backend.client;
+
+import akka.persistence.query.EventEnvelope;
+import ch.sbb.ausbildung.eventsourcing.backend.vm.Verkehrsmittel;
+import ch.sbb.ausbildung.eventsourcing.backend.vm.VerkehrsmittelActor;
+import ch.sbb.ausbildung.eventsourcing.backend.vm.VerkehrsmittelActor.Event;
+import io.vavr.collection.HashMap;
+import io.vavr.collection.Iterator;
+import io.vavr.collection.Map;
+import io.vavr.collection.Set;
+import io.vavr.collection.Stream;
+import io.vavr.control.Option;
+import lombok.AccessLevel;
+import lombok.AllArgsConstructor;
+import lombok.Value;
+
+import java.util.function.UnaryOperator;
+
+/**
+ * Projection (read side) of the current state of all "verkehrsmittel", i.e. their current position and delay,
+ * built from the events streamed by the {@link EventHub}.
+ * Alongside the verkehrsmittel it holds the sequence number of the last event applied per entity (by vmNummer),
+ * so the live events following this state can be matched without gaps or duplicates; they are the position to continue
+ * from when catching up from the event store as well (per entity, the events pushed by the entities don't have an
+ * offset in the tagged events).
+ *
+ * The projection maintains secondary indexes of the verkehrsmittel as well (see {@link VerkehrsmittelIndex}), updated for
+ * each event applied, so the queries of the http api are answered without scanning all verkehrsmittel.
+ *
+ * The projection is immutable (persistent collections), applying an event returns a new instance which shares
+ * most of its structure with the previous one; therefore it can safely be handed over to any client.
+ */
+@Value
+@AllArgsConstructor(access = AccessLevel.PRIVATE)
+class VerkehrsmittelProjection {
+
+    private static final VerkehrsmittelProjection EMPTY = new VerkehrsmittelProjection(HashMap.empty(), VerkehrsmittelIndex.empty(),
+            HashMap.empty());
+
+    Map<Integer, Verkehrsmittel> verkehrsmittel;
+    VerkehrsmittelIndex index;
+    Map<Integer, Long> sequenceNrs;
+
+    static VerkehrsmittelProjection empty() {
+        return EMPTY;
+    }
+
+    VerkehrsmittelProjection apply(EventEnvelope envelope) {
+        final Map<Integer, Verkehrsmittel> updated = apply(envelope.event());
+        return new VerkehrsmittelProjection(
+                updated,
+                reindex(envelope.event(), updated),
+                sequenceNrs.put(vmNummerOf(envelope), envelope.sequenceNr()));
+    }
+
+    // sequence number of the last event applied to the given verkehrsmittel (0 if none)
+    long sequenceNrOf(int vmNummer) {
+        return sequenceNrs.getOrElse(vmNummer, 0L);
+    }
+
+    // the verkehrsmittel of the event (taken from the event, the persistence id is only parsed if it's unknown)
+    static int vmNummerOf(EventEnvelope envelope) {
+        return envelope.event() instanceof Event
+                ? ((Event) envelope.event()).getVmNummer()
+                : VerkehrsmittelActor.vmNummerOf(envelope.persistenceId());
+    }
+
+    /**
+     * The verkehrsmittel matching all of the given criteria (all if there's none), looked up by the indexes:
+     * of the given vmArt, currently at or due to pass the given station, delayed by at least the given minutes
+     * (a minDelay of 0 or less isn't a criterion, i.e. the verkehrsmittel match whether delayed or not).
+     */
+    Iterator<Verkehrsmittel> query(Option<String> vmArt, Option<String> station, Option<Integer> minDelay) {
+        final Option<Integer> delay = minDelay.filter(min -> min > 0);
+        final Option<Set<Integer>> vmNummern = Stream.of(
+                vmArt.map(index::withVmArt),
+                station.map(index::passing),
+                delay.map(index::delayedBy))
+                .flatMap(candidates -> candidates)
+                // intersected starting with the smallest set of candidates
+                .sortBy(Set::size)
+                .reduceLeftOption(Set::intersect);
+        return vmNummern.map(candidates -> candidates.iterator().flatMap(verkehrsmittel::get))
+                .getOrElse(verkehrsmittel::valuesIterator)
+                .filter(vm -> delay.forAll(min -> vm.getDelay() != null && vm.getDelay() >= min));
+    }
+
+    private Map<Integer, Verkehrsmittel> apply(Object event) {
+        if (event instanceof Event.VerkehrsmittelCreated) {
+            final Event.VerkehrsmittelCreated created = (Event.VerkehrsmittelCreated) event;
+            return verkehrsmittel.put(created.getVmNummer(), created.getVerkehrsmittel().toBuilder().build());
+        } else if (event instanceof Event.VerkehrsmittelMoved) {
+            final Event.VerkehrsmittelMoved moved = (Event.VerkehrsmittelMoved) event;
+            return update(moved.getVmNummer(), vm -> vm.withAktuellePosition(moved.getAktuellePosition()));
+        } else if (event instanceof Event.VerkehrsmittelDelayed) {
+            final Event.VerkehrsmittelDelayed delayed = (Event.VerkehrsmittelDelayed) event;
+            return update(delayed.getVmNummer(), vm -> vm.withDelay(delayed.getDelay()));
+        }
+        return verkehrsmittel;
+    }
+
+    // updates the indexes by the verkehrsmittel concerned (if changed)
+    private VerkehrsmittelIndex reindex(Object event, Map<Integer, Verkehrsmittel> updated) {
+        if (!(event instanceof Event)) {
+            return index;
+        }
+        final int vmNummer = ((Event) event).getVmNummer();
+        final Verkehrsmittel before = verkehrsmittel.get(vmNummer).getOrNull();
+        final Verkehrsmittel after = updated.get(vmNummer).getOrNull();
+        return before == after ? index : index.update(before, after);
+    }
+
+    // replaces the verkehrsmittel by an updated copy (if it exists)
+    private Map<Integer, Verkehrsmittel> update(int vmNummer, UnaryOperator<Verkehrsmittel> change) {
+        return verkehrsmittel.get(vmNummer)
+                .map(vm -> verkehrsmittel.put(vmNummer, change.apply(vm)))
+                .getOrElse(verkehrsmittel);
+    }
+}
@@ -1,43 +1,55 @@
 
 package ch.sbb.ausbildung.eventsourcing.backend.client;
 
+import akka.Done;
+import akka.NotUsed;
+import akka.actor.Cancellable;
 import akka.actor.AbstractLoggingActor;
 import akka.actor.ActorRef;
 import akka.actor.Props;
 import akka.http.javadsl.model.ws.Message;
 import akka.http.javadsl.model.ws.TextMessage;
-import akka.persistence.query.EventEnvelope;
-import akka.persistence.query.PersistenceQuery;
-import akka.persistence.query.journal.leveldb.javadsl.LeveldbReadJournal;
+import akka.japi.Pair;
+import akka.stream.BufferOverflowException;
+import akka.stream.KillSwitches;
 import akka.stream.Materializer;
-import akka.stream.QueueOfferResult;
+import akka.stream.UniqueKillSwitch;
+import akka.stream.javadsl.Keep;
 import akka.stream.javadsl.Sink;
-import akka.stream.javadsl.SourceQueueWithComplete;
+import akka.stream.javadsl.Source;
 import ch.sbb.ausbildung.eventsourcing.backend.client.FSA.UserCommands;
 import ch.sbb.ausbildung.eventsourcing.backend.client.FSA.UserFSA;
 import ch.sbb.ausbildung.eventsourcing.backend.client.FSA.VerkehrsmittelFSA;
+import ch.sbb.ausbildung.eventsourcing.backend.vm.VerkehrsmittelActor;
 import ch.sbb.ausbildung.eventsourcing.backend.vm.VerkehrsmittelActor.Command;
-import ch.sbb.ausbildung.eventsourcing.backend.vm.VerkehrsmittelActor.Event;
+import io.vavr.collection.HashMap;
+import io.vavr.collection.Map;
+import io.vavr.control.Option;
 import lombok.Value;
 
+import java.time.Duration;
 import java.util.concurrent.CompletionStage;
 
 /**
  * Websocket-Actor handling the bidirectional websocket communication between backend and frontend.
  * Each browser session (client) will trigger the creation of a new instance of this actor.
  *
- * To be able to stream the backend events to the frontend, this actor holds a ref to the event journal (leveldb)
- * aka. read journal where persistent queries can be triggered against; the result will be a streaming source of events
- * (of type EventEnvelope). These events are then offered to the actor's input queue as they arrive from stream.
- * The websocket actor takes them off the queue and pushes them to the client side (converted to the appropriate action type).
+ * To be able to stream the backend events to the frontend, this actor holds a ref to the node-wide {@link EventHub}
+ * which streams the events from the event journal (leveldb) aka. read journal, already converted to the appropriate
+ * action type and serialized. These messages are streamed into the outbound sink of the websocket connection, which is
+ * backpressured by the client (i.e. the socket) all the way back to the event hub. A client which can't keep up is
+ * handled according to the {@link SlowConsumerPolicy}, its metrics (messages sent, events pending in its buffer, buffer
+ * overflows) are logged periodically.
+ * If negotiated by the client (see {@link ClientOptions}), the FSAs are encoded as CBOR (binary) instead of JSON and/or
+ * the events are sent in batched frames, i.e. an array of FSAs per frame (grouped by size or time window).
  *
  * User commands from the client on the other side are handled in the {@link #receive(TextMessage)} block:
  * depending on their type the corresponding action will be triggered (e.g. forwarding to the verkehrsmittel actor or the like)
  *
  * @param <T> type of FSA to handle in this websocket actor
  *
- * @see <a href="https://doc.akka.io/docs/akka/current/stream/stream-integrations.html#source-queue">SourceQueueWithComplete
- * (streaming source which emits elements from a queue</a>
+ * @see <a href="https://doc.akka.io/docs/akka/current/stream/stream-dynamic.html#using-the-mergehub">MergeHub
+ * (outbound sink, merging the events and the replies to the client)</a>
  */
 public class WebsocketActor<T extends FSA> extends AbstractLoggingActor {
 
@@ -47,24 +59,34 @@ public class WebsocketActor<T extends FSA> extends AbstractLoggingActor {
     private final Class<T> fsaClass;
     private final Materializer materializer;
     private final ActorRef vmActor;
-    private LeveldbReadJournal readJournal;
-    private SourceQueueWithComplete<Message> toClientQueue;
+    private final EventHub eventHub;
+    private final ClientOptions options;
+    // max. number of events resp. max. time window per batched frame (defined in "application.conf")
+    private final int batchMaxSize = context().system().settings().config().getInt("eventsourcing.websocket.batch.max-size");
+    private final Duration batchWindow = context().system().settings().config().getDuration("eventsourcing.websocket.batch.window");
+    private final ClientMetrics metrics = new ClientMetrics();
+    private final Cancellable metricsLog;
+    // outbound sink (websocket-actor -> client) and the switch to close the connection
+    private Sink<Message, NotUsed> toClient;
+    private UniqueKillSwitch connection;
+    // stream of events currently pushed to the client (if any) and the filter of its subscription
+    private UniqueKillSwitch eventStream;
+    private SubscriptionFilter filter = SubscriptionFilter.ALL;
 
-    static Props props(ActorRef vmActor, Materializer materializer) {
-        return Props.create(WebsocketActor.class, () -> new WebsocketActor(vmActor, materializer));
+    static Props props(ActorRef vmActor, EventHub eventHub, ClientOptions options, Materializer materializer) {
+        return Props.create(WebsocketActor.class, () -> new WebsocketActor(vmActor, eventHub, options, materializer));
     }
 
-    private WebsocketActor(ActorRef vmActor, Materializer materializer) {
+    private WebsocketActor(ActorRef vmActor, EventHub eventHub, ClientOptions options, Materializer materializer) {
         this.vmActor = vmActor;
+        this.eventHub = eventHub;
+        this.options = options;
         this.fsaClass = (Class<T>) VerkehrsmittelFSA.class;
         this.materializer = materializer;
-    }
 
-    @Override
-    public void preStart() {
-        // get the read journal used for persistence queries on the event store
-        readJournal = PersistenceQuery.get(context().system())
-                .getReadJournalFor(LeveldbReadJournal.class, LeveldbReadJournal.Identifier());
+        final Duration metricsInterval = context().system().settings().config().getDuration("eventsourcing.websocket.metrics-interval");
+        this.metricsLog = context().system().scheduler().schedule(metricsInterval, metricsInterval, self(),
+                LogMetrics.instance(), context().dispatcher(), self());
     }
 
     @Override
@@ -72,23 +94,35 @@ public class WebsocketActor<T extends FSA> extends AbstractLoggingActor {
         return receiveBuilder()
                 // handling of messages coming from the client (frontend)
                 .match(TextMessage.class, this::receive)
-                // register the "queue" (SourceQueueWithComplete) used for events from backend
-                .match(RegisterOutgoingQueue.class, this::init)
+                // register the outbound sink used for events from backend
+                .match(RegisterOutgoing.class, this::init)
+                .match(EventStreamFailed.class, this::eventStreamFailed)
+                .match(LogMetrics.class, logMetrics -> logMetrics())
+                // acknowledgement of a command forwarded to the verkehrsmittel actor (no flow control needed here)
+                .match(VerkehrsmittelActor.Ack.class, ack -> { })
                 .match(ConnectionError.class, streamTerminated -> context().stop(self()))
                 .build();
     }
 
-    private void init(final RegisterOutgoingQueue command) {
-        this.toClientQueue = command.getQueue();
+    private void init(final RegisterOutgoing command) {
+        this.toClient = command.getSink();
+        this.connection = command.getConnection();
+        log().info("websocket client connected (slow consumer policy: {}, options: {})", eventHub.getSlowConsumerPolicy(), options);
+    }
+
+    @Override
+    public void postStop() {
+        metricsLog.cancel();
+        stopEventStream();
     }
 
     // reply with a serialized FSA sending to client (frontend)
-    private CompletionStage<Boolean> reply(final FSA action) {
+    private void reply(final FSA action) {
         try {
             log().info("Reply to client: {}", action.getType());
-            return toClientQueue
-                    .offer(TextMessage.create(FSA.writeValueAsString(action)))
-                    .thenApply(queueOfferResult -> queueOfferResult == QueueOfferResult.enqueued());
+            Source.single(options.getEncoding().encode(action))
+                    .map(this::sent)
+                    .runWith(toClient, materializer);
         } catch (final Exception e) {
             throw new WebsocketException("cannot send to client", e);
         }
@@ -103,7 +137,13 @@ public class WebsocketActor<T extends FSA> extends AbstractLoggingActor {
                 pushUsername();
                 break;
             case UserCommands.LOAD_VERKEHRSMITTEL:
-                pushEvents();
+                subscribe(SubscriptionFilter.ALL);
+                break;
+            case UserCommands.SUBSCRIBE_VERKEHRSMITTEL:
+                subscribe(SubscriptionFilter.of((java.util.Map<String, Object>) action.getPayload()));
+                break;
+            case UserCommands.RESUME_VERKEHRSMITTEL:
+                resumeEvents(action);
                 break;
             case UserCommands.DELAY_VERKEHRSMITTEL:
                 delayVerkehrsmittel(action);
@@ -136,26 +176,82 @@ public class WebsocketActor<T extends FSA> extends AbstractLoggingActor {
         }
     }
 
-    // we start a persistence query i.e. a source streaming all "vm"-events from backend to frontend
-    private void pushEvents() {
-        readJournal.eventsByPersistenceId("vm", 0L, Long.MAX_VALUE)
-                .map(EventEnvelope::event)
-                .map(event -> {
-                    if (event instanceof Event.VerkehrsmittelCreated) {
-                        Event.VerkehrsmittelCreated created = (Event.VerkehrsmittelCreated) event;
-                        return VerkehrsmittelFSA.action(FSA.Events.VM_CREATED, created.getVerkehrsmittel(), created.getVmNummer());
-                    } else if (event instanceof Event.VerkehrsmittelMoved) {
-                        Event.VerkehrsmittelMoved moved = (Event.VerkehrsmittelMoved) event;
-                        return VerkehrsmittelFSA.action(FSA.Events.VM_MOVED, moved.getAktuellePosition(), moved.getVmNummer());
-                    } else if (event instanceof Event.VerkehrsmittelDelayed) {
-                        Event.VerkehrsmittelDelayed delayed = (Event.VerkehrsmittelDelayed) event;
-                        return VerkehrsmittelFSA.action(FSA.Events.VM_DELAYED, delayed.getDelay(), delayed.getVmNummer());
-                    } else {
-                        return VerkehrsmittelFSA.error("server_error", "unhandled event type: " + event);
-                    }
-                })
-                .map(this::reply)
-                .runWith(Sink.ignore(), materializer);
+    // we attach to the event hub i.e. a source streaming the current state and all new "vm"-events (already serialized)
+    // from backend to frontend, restricted to the verkehrsmittel matching the filter
+    private void subscribe(SubscriptionFilter filter) {
+        this.filter = filter;
+        runEventStream(eventHub.currentStateAndEvents(filter, options.getEncoding(), metrics));
+    }
+
+    // after a reconnect: only the events the client has missed, restricted to the filter of its subscription
+    // (payload: sequenceNrs: vmNummer -> sequence number of the last event seen, filter: see SubscriptionFilter)
+    private void resumeEvents(VerkehrsmittelFSA action) {
+        final java.util.Map<String, Object> payload = (java.util.Map<String, Object>) action.getPayload();
+        final Map<Integer, Long> lastSequenceNrs = Option.of((java.util.Map<String, Number>) payload.get("sequenceNrs"))
+                .map(HashMap::ofAll).getOrElse(HashMap.empty())
+                .bimap(Integer::parseInt, Number::longValue);
+        this.filter = SubscriptionFilter.of((java.util.Map<String, Object>) payload.get("filter"));
+        runEventStream(eventHub.eventsAfter(lastSequenceNrs, filter, options.getEncoding(), metrics));
+    }
+
+    // (re)starts the stream of events to the client (backpressured by the client), a previous one is stopped
+    private void runEventStream(Source<Message, NotUsed> events) {
+        stopEventStream();
+        final Source<Message, UniqueKillSwitch> messages = events
+                .viaMat(KillSwitches.single(), Keep.right())
+                .map(this::sent);
+        final Pair<UniqueKillSwitch, CompletionStage<Done>> stream = (options.isBatchedFrames()
+                ? messages.groupedWithin(batchMaxSize, batchWindow).map(options.getEncoding()::batch)
+                : messages)
+                .watchTermination(Keep.both())
+                .to(toClient)
+                .run(materializer);
+        eventStream = stream.first();
+        final UniqueKillSwitch failedStream = eventStream;
+        stream.second().whenComplete((done, failure) -> {
+            if (failure != null) {
+                self().tell(new EventStreamFailed(failedStream, failure), ActorRef.noSender());
+            }
+        });
+    }
+
+    private Message sent(Message message) {
+        metrics.sent();
+        return message;
+    }
+
+    // the client couldn't keep up (buffer overflow) or the stream failed otherwise
+    private void eventStreamFailed(EventStreamFailed failed) {
+        if (failed.getStream() != eventStream) {
+            // failure of a previous stream (already replaced)
+            return;
+        }
+        eventStream = null;
+        if (failed.getCause() instanceof BufferOverflowException) {
+            metrics.overflowed();
+            if (eventHub.getSlowConsumerPolicy() == SlowConsumerPolicy.CONFLATE) {
+                log().warning("slow websocket client (policy: conflate): restarting its stream with the current state, {} overflows so far",
+                        metrics.getOverflows());
+                subscribe(filter);
+                return;
+            }
+            log().warning("slow websocket client (policy: {}): dropping the connection", eventHub.getSlowConsumerPolicy());
+        } else {
+            log().error(failed.getCause(), "event stream to websocket client failed: dropping the connection");
+        }
+        connection.shutdown();
+    }
+
+    private void logMetrics() {
+        log().info("websocket client metrics: sent={} messages, pending={} events, overflows={}, conflated={} events",
+                metrics.getSent(), metrics.getPending(), metrics.getOverflows(), metrics.getConflated());
+    }
+
+    private void stopEventStream() {
+        if (eventStream != null) {
+            eventStream.shutdown();
+            eventStream = null;
+        }
     }
 
     // pushed the user name (user logged in) to the frontend
@@ -174,10 +270,23 @@ public class WebsocketActor<T extends FSA> extends AbstractLoggingActor {
     static class ConnectionError {
     }
 
-    // initialize the outbound queue (websocket-actor -> client)
+    // initialize the outbound sink (websocket-actor -> client) incl. the switch to close the connection
     @Value
-    static class RegisterOutgoingQueue {
-        SourceQueueWithComplete<Message> queue;
+    static class RegisterOutgoing {
+        Sink<Message, NotUsed> sink;
+        UniqueKillSwitch connection;
+    }
+
+    // failure of the stream of events to the client (e.g. buffer overflow)
+    @Value
+    static class EventStreamFailed {
+        UniqueKillSwitch stream;
+        Throwable cause;
+    }
+
+    // periodic trigger for logging the metrics of the client
+    @Value(staticConstructor = "instance")
+    static class LogMetrics {
     }
 
     static class WebsocketException extends RuntimeException {
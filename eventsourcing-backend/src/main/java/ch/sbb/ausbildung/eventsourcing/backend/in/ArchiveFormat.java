@@ -0,0 +1,55 @@
+
+package ch.sbb.ausbildung.eventsourcing.backend.in;
+
+import akka.stream.IOResult;
+import akka.stream.javadsl.Compression;
+import akka.stream.javadsl.FileIO;
+import akka.stream.javadsl.Source;
+import akka.stream.javadsl.StreamConverters;
+import akka.util.ByteString;
+import com.github.luben.zstd.ZstdInputStream;
+import io.vavr.collection.List;
+import io.vavr.control.Option;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.CompletionStage;
+
+/**
+ * Formats of the compressed command archives (e.g. the daily archives of an upstream), identified by the extension of
+ * the file. An archive is decompressed within the stream (with backpressure, i.e. only as fast as its commands are
+ * handled), so it doesn't have to be decompressed to disk before; it's read once up to its end (not tailed).
+ */
+enum ArchiveFormat {
+
+    // gzip (".gz"), decompressed by akka streams
+    GZIP(".gz") {
+        @Override
+        Source<ByteString, CompletionStage<IOResult>> read(Path file, int chunkSize) {
+            return FileIO.fromPath(file, chunkSize).via(Compression.gunzip(chunkSize));
+        }
+    },
+
+    // zstandard (".zst"), decompressed by zstd-jni (blocking input stream, run on the blocking io dispatcher)
+    ZSTD(".zst") {
+        @Override
+        Source<ByteString, CompletionStage<IOResult>> read(Path file, int chunkSize) {
+            return StreamConverters.fromInputStream(() -> new ZstdInputStream(Files.newInputStream(file)), chunkSize);
+        }
+    };
+
+    private final String extension;
+
+    ArchiveFormat(String extension) {
+        this.extension = extension;
+    }
+
+    // decompressed content of the archive in chunks of (at most) the given size
+    abstract Source<ByteString, CompletionStage<IOResult>> read(Path file, int chunkSize);
+
+    // format of the given file by its extension (none if it's an uncompressed command file)
+    static Option<ArchiveFormat> of(Path file) {
+        final String name = file.getFileName().toString().toLowerCase();
+        return List.of(values()).find(format -> name.endsWith(format.extension));
+    }
+}
@@ -0,0 +1,192 @@
+
+package ch.sbb.ausbildung.eventsourcing.backend.in;
+
+import akka.util.ByteString;
+import ch.sbb.ausbildung.eventsourcing.backend.vm.VerkehrsmittelActor.Command;
+import io.vavr.collection.List;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+
+/**
+ * Byte-level parser of the command lines (CSV, UTF-8) of the inbound command file, e.g.
+ * <pre>
+ *     CreateVerkehrsmittel,711,ICN,St.Gallen-Genf Flughafen,SG;W;WI;ZFH;ZUE
+ *     MoveVerkehrsmittel,711,ZUE
+ *     DelayVerkehrsmittel,711,5
+ *     DelayVerkehrsmittel,711,5,feed1-4711
+ * </pre>
+ * A command may be followed by an additional field, its command id (see {@link Command.Identified}), so a command
+ * which is delivered more than once (e.g. by an upstream with at-least-once delivery) is applied only once.
+ * The line is parsed on its bytes directly: only the field boundaries are determined, the command id is compared
+ * and the numbers are parsed on the bytes, so only the fields which are part of the command are decoded into strings.
+ * Fields may be quoted (<tt>"..."</tt>, a quote within is escaped by doubling it).
+ *
+ * A line which isn't a valid command results in a "noop" command (instead of failing the stream).
+ * The parser is stateless, i.e. the lines can be parsed in parallel.
+ */
+final class CommandParser {
+
+    // command ids (first field)
+    private static final byte[] CREATE_VERKEHRSMITTEL_COMMAND_ID = "CreateVerkehrsmittel".getBytes(StandardCharsets.UTF_8);
+    private static final byte[] MOVE_VERKEHRSMITTEL_COMMAND_ID = "MoveVerkehrsmittel".getBytes(StandardCharsets.UTF_8);
+    private static final byte[] DELAY_VERKEHRSMITTEL_COMMAND_ID = "DelayVerkehrsmittel".getBytes(StandardCharsets.UTF_8);
+
+    private static final byte SEPARATOR = ',';
+    private static final byte LIST_SEPARATOR = ';';
+    private static final byte QUOTE = '"';
+    // max. number of fields of a command (incl. the optional command id)
+    private static final int MAX_FIELDS = 6;
+
+    private CommandParser() {
+    }
+
+    static Command parse(ByteString line) {
+        final byte[] bytes = line.toArray();
+        return parse(bytes, 0, bytes.length);
+    }
+
+    // parses the line within the given bytes (start inclusive, end exclusive), e.g. of a segment of the file
+    static Command parse(byte[] bytes, int start, int end) {
+        final Fields fields = Fields.of(bytes, start, end);
+        if (fields == null) {
+            return Command.NoOp.instance();
+        }
+        try {
+            if (fields.is(0, CREATE_VERKEHRSMITTEL_COMMAND_ID) && fields.hasCount(5)) {
+                return identified(fields, 5, new Command.CreateVerkehrsmittel(fields.intValue(1), fields.string(2), fields.string(3), fields.list(4)));
+            } else if (fields.is(0, MOVE_VERKEHRSMITTEL_COMMAND_ID) && fields.hasCount(3)) {
+                return identified(fields, 3, new Command.MoveVerkehrsmittel(fields.intValue(1), fields.string(2)));
+            } else if (fields.is(0, DELAY_VERKEHRSMITTEL_COMMAND_ID) && fields.hasCount(3)) {
+                return identified(fields, 3, new Command.DelayVerkehrsmittel(fields.intValue(1), fields.intValue(2)));
+            }
+        } catch (NumberFormatException e) {
+            // invalid vmNummer or delay -> noop
+        }
+        // if there's no matching case return "noop" command (instead of null)
+        return Command.NoOp.instance();
+    }
+
+    // the command with its id if there's an (non empty) additional field
+    private static Command identified(Fields fields, int count, Command.EntityCommand command) {
+        if (fields.count > count && fields.ends[count] > fields.starts[count]) {
+            return new Command.Identified(fields.string(count), command);
+        }
+        return command;
+    }
+
+    // boundaries of the fields of a line (start inclusive, end exclusive, without quotes)
+    private static final class Fields {
+        private final byte[] bytes;
+        private final int[] starts = new int[MAX_FIELDS];
+        private final int[] ends = new int[MAX_FIELDS];
+        private final boolean[] quoted = new boolean[MAX_FIELDS];
+        private int count;
+
+        private Fields(byte[] bytes) {
+            this.bytes = bytes;
+        }
+
+        // null if the line is empty or has too many fields
+        static Fields of(byte[] bytes, int from, int to) {
+            int end = to;
+            // line feed (CR LF or LF) if still contained
+            while (end > from && (bytes[end - 1] == '\n' || bytes[end - 1] == '\r')) {
+                end--;
+            }
+            if (end == from) {
+                return null;
+            }
+            final Fields fields = new Fields(bytes);
+            int start = from;
+            boolean quoted = false;
+            for (int i = from; i < end; i++) {
+                if (bytes[i] == QUOTE) {
+                    quoted = !quoted;
+                } else if (bytes[i] == SEPARATOR && !quoted) {
+                    if (!fields.add(start, i)) {
+                        return null;
+                    }
+                    start = i + 1;
+                }
+            }
+            return fields.add(start, end) ? fields : null;
+        }
+
+        private boolean add(int start, int end) {
+            if (count == MAX_FIELDS) {
+                return false;
+            }
+            quoted[count] = end - start >= 2 && bytes[start] == QUOTE && bytes[end - 1] == QUOTE;
+            starts[count] = quoted[count] ? start + 1 : start;
+            ends[count] = quoted[count] ? end - 1 : end;
+            count++;
+            return true;
+        }
+
+        // the given number of fields, optionally followed by the command id
+        boolean hasCount(int expected) {
+            return count == expected || count == expected + 1;
+        }
+
+        boolean is(int field, byte[] value) {
+            final int length = ends[field] - starts[field];
+            if (length != value.length) {
+                return false;
+            }
+            for (int i = 0; i < length; i++) {
+                if (bytes[starts[field] + i] != value[i]) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        int intValue(int field) {
+            final int start = starts[field];
+            final int end = ends[field];
+            if (start == end) {
+                throw new NumberFormatException("empty number");
+            }
+            final boolean negative = bytes[start] == '-';
+            final int digits = negative ? start + 1 : start;
+            if (digits == end) {
+                throw new NumberFormatException("number without digits: " + string(field));
+            }
+            int value = 0;
+            for (int i = digits; i < end; i++) {
+                final int digit = bytes[i] - '0';
+                if (digit < 0 || digit > 9 || value > (Integer.MAX_VALUE - digit) / 10) {
+                    throw new NumberFormatException("invalid number: " + string(field));
+                }
+                value = value * 10 + digit;
+            }
+            return negative ? -value : value;
+        }
+
+        String string(int field) {
+            final String value = string(starts[field], ends[field]);
+            return quoted[field] ? value.replace("\"\"", "\"") : value;
+        }
+
+        // sub fields separated by ';' (empty ones are skipped)
+        List<String> list(int field) {
+            final ArrayList<String> values = new ArrayList<>();
+            final int end = ends[field];
+            int start = starts[field];
+            for (int i = start; i <= end; i++) {
+                if (i == end || bytes[i] == LIST_SEPARATOR) {
+                    if (i > start) {
+                        values.add(string(start, i));
+                    }
+                    start = i + 1;
+                }
+            }
+            return List.ofAll(values);
+        }
+
+        private String string(int start, int end) {
+            return new String(bytes, start, end - start, StandardCharsets.UTF_8);
+        }
+    }
+}
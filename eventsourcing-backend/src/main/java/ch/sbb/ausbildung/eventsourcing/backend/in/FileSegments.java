@@ -0,0 +1,96 @@
+
+package ch.sbb.ausbildung.eventsourcing.backend.in;
+
+import lombok.Value;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Optional;
+
+/**
+ * Reader of a (large) command file in line-aligned segments for the bulk import: the file is memory-mapped in regions
+ * of (at most) the segment size, each region is cut after its last line feed and copied at once into a {@link Segment},
+ * so every segment contains complete lines only and can be parsed independently (i.e. in parallel).
+ *
+ * The file is read up to the given end, i.e. the end of its last complete line (see {@link #endOfLines(Path)}); an
+ * incomplete last line (not yet terminated by a line feed) is not part of any segment but left to the tailing of the file.
+ */
+final class FileSegments implements AutoCloseable {
+
+    private static final byte LINE_FEED = '\n';
+
+    private final FileChannel channel;
+    private final int segmentSize;
+    // end of the last complete line and position of the next segment
+    private final long end;
+    private long position;
+
+    private FileSegments(FileChannel channel, long position, long end, int segmentSize) {
+        this.channel = channel;
+        this.segmentSize = segmentSize;
+        this.end = end;
+        this.position = position;
+    }
+
+    static FileSegments open(Path path, long position, long end, int segmentSize) throws IOException {
+        return new FileSegments(FileChannel.open(path, StandardOpenOption.READ), position, end, segmentSize);
+    }
+
+    // offset after the last line feed of the file (0 if there is none)
+    static long endOfLines(Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            final ByteBuffer buffer = ByteBuffer.allocate(8 * 1024);
+            long end = channel.size();
+            while (end > 0) {
+                final long start = Math.max(0L, end - buffer.capacity());
+                buffer.clear().limit((int) (end - start));
+                while (buffer.hasRemaining() && channel.read(buffer, start + buffer.position()) >= 0) {
+                    // read the whole block
+                }
+                for (int i = buffer.limit() - 1; i >= 0; i--) {
+                    if (buffer.get(i) == LINE_FEED) {
+                        return start + i + 1;
+                    }
+                }
+                end = start;
+            }
+            return 0L;
+        }
+    }
+
+    // next segment (ending with a line feed), empty if there are no more complete lines
+    Optional<Segment> next() throws IOException {
+        if (position >= end) {
+            return Optional.empty();
+        }
+        final MappedByteBuffer region = channel.map(FileChannel.MapMode.READ_ONLY, position, Math.min(segmentSize, end - position));
+        int length = region.limit();
+        while (length > 0 && region.get(length - 1) != LINE_FEED) {
+            length--;
+        }
+        if (length == 0) {
+            throw new IOException("line at offset " + position + " is longer than the segment size " + segmentSize);
+        }
+        final byte[] bytes = new byte[length];
+        region.get(bytes);
+        final Segment segment = new Segment(position, bytes);
+        position += length;
+        return Optional.of(segment);
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    // complete lines of the file starting at the given offset
+    @Value
+    static class Segment {
+        long offset;
+        byte[] bytes;
+    }
+}
@@ -1,28 +1,74 @@
-
 package ch.sbb.ausbildung.eventsourcing.backend.in;
 
-import akka.actor.AbstractLoggingActor;
+import akka.NotUsed;
 import akka.actor.ActorRef;
 import akka.actor.Props;
+import akka.actor.Status;
+import akka.event.LoggingAdapter;
+import akka.pattern.Patterns;
+import akka.persistence.AbstractPersistentActorWithTimers;
+import akka.persistence.DeleteMessagesFailure;
+import akka.persistence.RecoveryCompleted;
 import akka.stream.ActorMaterializer;
 import akka.stream.alpakka.file.javadsl.FileTailSource;
+import akka.stream.javadsl.Flow;
+import akka.stream.javadsl.MergeHub;
 import akka.stream.javadsl.Sink;
+import akka.stream.javadsl.Source;
+import akka.util.ByteString;
 import ch.sbb.ausbildung.eventsourcing.backend.vm.VerkehrsmittelActor;
-import com.opencsv.CSVParser;
+import com.typesafe.config.Config;
+import io.vavr.collection.HashMap;
+import io.vavr.collection.HashSet;
 import io.vavr.collection.List;
-import org.apache.commons.lang3.ArrayUtils;
-import org.apache.commons.lang3.StringUtils;
+import io.vavr.collection.Map;
+import io.vavr.collection.Set;
+import io.vavr.control.Option;
+import lombok.Value;
 
 import java.io.IOException;
+import java.io.Serializable;
+import java.nio.file.DirectoryStream;
 import java.nio.file.FileSystems;
+import java.nio.file.Files;
 import java.nio.file.Path;
 import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicReference;
 
 /**
- * Inbound Actor listening for new commands arriving in the <a href="">verkehrsmittel.csv</a> file.
+ * Inbound Actor listening for new commands arriving in the <a href="">verkehrsmittel.csv</a> file resp. in the command
+ * files of a directory (e.g. one per region or upstream feed, see <code>eventsourcing.command-file.path</code>).
  * Therefore it starts a <a href="https://doc.akka.io/docs/alpakka/current/file.html#tailing-a-file-into-a-stream">FileTailSource</a>
- * (Akka Alpakka, reactive streaming pipelines and connectors) which polls the given file for changes and emits
+ * (Akka Alpakka, reactive streaming pipelines and connectors) per file which polls the file for changes and emits
  * these changes as chunks of bytes (i.e. lines) as soon as they are written to the (end of) file.
+ * The directory is scanned periodically, so a new file is picked up while the app is running.
+ * Compressed command archives (<tt>.gz</tt>, <tt>.zst</tt>, see {@link ArchiveFormat}) are decompressed within the
+ * stream and read once up to their end; a completely read archive is not read again.
+ *
+ * The lines of each file are parsed on their bytes (see {@link CommandParser}), in chunks and in parallel while keeping
+ * their order. The commands of all files are merged (each file gets its turn, so a busy file can't starve the others)
+ * and sent to the verkehrsmittel entities with flow control: each command is acknowledged by its entity
+ * ({@link VerkehrsmittelActor.Ack}) and only a limited number of commands may be pending, so the files can't flood the
+ * mailboxes of the entities (see <code>eventsourcing.command-file</code> in "application.conf").
+ * The commands of a file are sent in the order of its lines, so the commands of a verkehrsmittel (in a file) are
+ * handled in order by its entity, while the entities handle the commands of different verkehrsmittel in parallel.
+ *
+ * The position per file (byte offset and line number) up to which all commands have been acknowledged is persisted
+ * periodically as checkpoint (in the event store, only the latest one is kept). A command is acknowledged only once its
+ * event has been written (also if the entities write in batches), so a checkpoint covers written events only and no
+ * command is lost on a crash. On restart each file is read from its checkpoint instead of from its beginning, unless
+ * the file has been truncated or replaced meanwhile. The checkpoints of the files which no longer exist (deleted resp.
+ * moved away once archived) are dropped.
+ *
+ * Optionally (see <code>eventsourcing.command-file.bulk-import</code> in "application.conf") the part of a file
+ * which already exists when it's opened is imported in bulk before the file is tailed: it's read memory-mapped in large
+ * line-aligned segments (see {@link FileSegments}) which are parsed in parallel, and more commands are kept in flight
+ * so the entities can write them in batches (see <code>eventsourcing.batching</code>). The progress and throughput of
+ * the import are logged; at the end of the (imported part of the) file it switches to tailing the file.
  *
  * This actor simulates an inbound command source like e.g. a message queue or similar.
  * Because we don't wanna set up some complicated messaging middleware (MoM) in order to receive a stream of
@@ -32,24 +78,53 @@ import java.time.Duration;
  * so your IDE won't continuously scan and index the file for changes!
  * If you wanna add a new command while the app is running you can append your new command as a single line
  * at the end of the file (UTF-8).
- * Pay attention to the line feeds you're using: in a windows system use windows style line feeds (CR LF), in
- * a unix/linux system use unix style line feeds (LF); otherwise it won't work at all!
+ * Both windows style line feeds (CR LF) and unix style line feeds (LF) are accepted. A line longer than
+ * <code>max-line-length</code> is skipped (see {@link LineSplitter}).
  *
  * @see <a href="https://doc.akka.io/docs/alpakka/current/file.html#file">FileTailSource</a>
  */
-public class InboundActor extends AbstractLoggingActor {
+public class InboundActor extends AbstractPersistentActorWithTimers {
 
     // constants
-    private static final String CREATE_VERKEHRSMITTEL_COMMAND_ID = "CreateVerkehrsmittel";
-    private static final String MOVE_VERKEHRSMITTEL_COMMAND_ID = "MoveVerkehrsmittel";
+    private static final ByteString LINE_FEED = ByteString.fromString("\n");
+    // max. number of bytes read from the file at once
+    private static final int READ_CHUNK_SIZE = 64 * 1024;
+    // max. number of commands buffered per file in front of the merge
+    private static final int MERGE_BUFFER_SIZE = 16;
+    private static final String SCAN_TIMER = "scan";
 
-    // path to the "command file" (defined in "application.conf")
-    private final String fileLocation = context().system().settings().config().getString("eventsourcing.command-file.path");
-    private final Path filePath = FileSystems.getDefault().getPath(fileLocation);
+    private final LoggingAdapter log = context().system().log();
+
+    // path to the "command file" resp. directory and the settings of the inbound pipeline (defined in "application.conf")
+    private final Config config = context().system().settings().config().getConfig("eventsourcing.command-file");
+    private final Path path = FileSystems.getDefault().getPath(config.getString("path"));
+    private final String filePattern = config.getString("file-pattern");
+    private final Duration pollInterval = config.getDuration("poll-interval");
+    private final int maxLineLength = config.getInt("max-line-length");
+    private final int parseParallelism = config.getInt("parse-parallelism");
+    private final int parseChunkSize = config.getInt("parse-chunk-size");
+    private final int maxInFlight = config.getInt("max-in-flight");
+    private final Duration ackTimeout = config.getDuration("ack-timeout");
+    private final Duration checkpointInterval = config.getDuration("checkpoint-interval");
+    private final boolean bulkImportEnabled = config.getBoolean("bulk-import.enabled");
+    private final int segmentSize = config.getBytes("bulk-import.segment-size").intValue();
+    private final int bulkMaxInFlight = config.getInt("bulk-import.max-in-flight");
+    private final Duration progressInterval = config.getDuration("bulk-import.progress-interval");
     // materializer used to "materialize" and run the stream definition(s) aka. stages (source, sink)
     private final ActorMaterializer materializer = ActorMaterializer.create(context().system());
     private final ActorRef vmActor;
-    private final CSVParser parser = new CSVParser();
+    // positions per file up to which all commands have been acknowledged
+    private Checkpoints checkpoints = Checkpoints.empty();
+    // files currently read
+    private final java.util.Set<String> openFiles = new java.util.HashSet<>();
+    // merge of the commands of all files (sink per file) and its generation (incremented whenever it's restarted)
+    private Sink<Positioned<VerkehrsmittelActor.Command>, NotUsed> commands;
+    private int commandsGeneration;
+    // progress of the bulk imports per file
+    private final java.util.Map<String, ImportProgress> imports = new java.util.HashMap<>();
+    // ends of the archives read completely, but not yet committed (by path)
+    private final java.util.Map<String, Checkpoint> archiveEnds = new java.util.HashMap<>();
+    private long progressLoggedAt;
 
     // props to create this actor
     public static Props props(ActorRef vmActor) {
@@ -60,44 +135,445 @@ public class InboundActor extends AbstractLoggingActor {
         this.vmActor = vmActor;
     }
 
+    // recovering the last checkpoints, then the files are read from there
     @Override
-    public void preStart() throws Exception {
-        // start FileTailSource which continuously polls the file for new commands and emits them as reactive stream
-        FileTailSource.createLines(filePath, 1024, Duration.ofSeconds(1))
-                .log("Line", log())
-                .map(this::toCommand)
-                .log("Cmd:", log())
-                .runWith(Sink.actorRef(vmActor, "complete"), materializer);
-
-        super.preStart();
+    public Receive createReceiveRecover() {
+        return receiveBuilder()
+                .match(Checkpoints.class, recovered -> this.checkpoints = recovered)
+                // checkpoint of a single file (stored before the directory support)
+                .match(Checkpoint.class, recovered -> this.checkpoints = Checkpoints.empty().merge(Checkpoints.of(recovered)))
+                .match(RecoveryCompleted.class, completed -> {
+                    commands = runCommands();
+                    scan();
+                    getTimers().startPeriodicTimer(SCAN_TIMER, Scan.instance(), pollInterval);
+                })
+                .build();
     }
 
-    // no message handling here (just empty bahaviour)
     @Override
     public Receive createReceive() {
-        return emptyBehavior();
+        return receiveBuilder()
+                // only the latest checkpoints are needed -> delete the older ones
+                .match(Checkpoints.class, committed -> persist(completeArchives(checkpoints.merge(committed)), persisted -> {
+                    this.checkpoints = persisted;
+                    deleteMessages(lastSequenceNr() - 1);
+                    logProgress();
+                }))
+                .match(Scan.class, scan -> scan())
+                .match(FileClosed.class, this::fileClosed)
+                .match(DeleteMessagesFailure.class, failure ->
+                        log.warning("deleting old checkpoints failed: {}", failure.cause()))
+                .match(StreamCompleted.class, completed -> log.info("sending commands completed"))
+                // e.g. an entity didn't acknowledge in time -> the files are closed and reopened at their checkpoints
+                .match(Status.Failure.class, failure -> {
+                    log.error(failure.cause(), "sending commands failed, restarting");
+                    commands = runCommands();
+                    commandsGeneration++;
+                    // the archives already closed are not yet committed -> read them again (from their checkpoints);
+                    // the files closed later are reconciled by their generation (see fileClosed)
+                    openFiles.removeAll(archiveEnds.keySet());
+                    archiveEnds.clear();
+                })
+                .build();
+    }
+
+    // starts reading the files which are not yet read (e.g. new files in the directory)
+    private void scan() throws IOException {
+        final List<Path> files = commandFiles();
+        pruneCheckpoints(files);
+        for (Path file : files) {
+            if (!checkpoints.isCompleted(file) && openFiles.add(file.toString())) {
+                try {
+                    start(file, resumePosition(file));
+                } catch (IOException e) {
+                    // e.g. the file has been removed meanwhile -> retried by the next scan
+                    log.warning("opening {} failed: {}", file, e);
+                    openFiles.remove(file.toString());
+                }
+            }
+        }
+    }
+
+    // forgets the checkpoints of the files which no longer exist (e.g. deleted resp. moved away once archived), so they
+    // don't pile up; not if the path itself is missing (e.g. a directory not mounted), the files may still be there
+    private void pruneCheckpoints(List<Path> files) {
+        if (!Files.exists(path)) {
+            return;
+        }
+        final Set<String> existing = files.map(Path::toString).toSet().addAll(openFiles);
+        final Checkpoints pruned = checkpoints.retain(existing);
+        if (pruned != checkpoints) {
+            log.info("forgetting the checkpoints of {} (no longer existing)", checkpoints.paths().diff(existing).mkString(", "));
+            persist(pruned, persisted -> this.checkpoints = persisted);
+        }
+    }
+
+    // the files matching the pattern if the path is a directory, otherwise the file itself (if it exists)
+    private List<Path> commandFiles() throws IOException {
+        if (Files.isDirectory(path)) {
+            try (DirectoryStream<Path> files = Files.newDirectoryStream(path, filePattern)) {
+                return List.ofAll(files).filter(Files::isRegularFile).sorted();
+            }
+        }
+        return Files.isRegularFile(path) ? List.of(path) : List.empty();
+    }
+
+    // position to resume from: the checkpoint if it belongs to the (not truncated) file, otherwise its beginning
+    private Checkpoint resumePosition(Path file) throws IOException {
+        final Checkpoint checkpoint = checkpoints.get(file).getOrNull();
+        if (checkpoint == null) {
+            log.info("no checkpoint for {}, reading it from the beginning", file);
+            return Checkpoint.start(file);
+        } else if (ArchiveFormat.of(file).isEmpty() && Files.size(file) < checkpoint.getOffset()) {
+            log.warning("{} is smaller than its checkpoint {} (truncated or replaced), reading it from the beginning", file, checkpoint);
+            return Checkpoint.start(file);
+        }
+        log.info("resuming {} at {}", file, checkpoint);
+        return checkpoint;
     }
 
-    // parses and converts the given string (command "line" from file) into the appropriate verkehrsmittel command (if possible)
-    private VerkehrsmittelActor.Command toCommand(String line) throws IOException {
-        final String[] values = parser.parseLine(line);
+    // reads the file into the merge (an archive up to its end, otherwise bulk import of the existing lines if enabled,
+    // then tailing the file); a failure of a file only closes this file, it's reopened at its checkpoint by the next scan
+    private void start(Path file, Checkpoint from) throws IOException {
+        final Option<ArchiveFormat> archiveFormat = ArchiveFormat.of(file);
+        final long end = bulkImportEnabled && archiveFormat.isEmpty() ? FileSegments.endOfLines(file) : 0L;
+        // position after the last line read from the archive
+        final AtomicReference<Checkpoint> position = new AtomicReference<>(from);
+        // position after the last line of the archive, only set once it has been read up to its end (a cancelled stream
+        // terminates successfully as well, e.g. if the merge has failed)
+        final AtomicReference<Checkpoint> archiveEnd = new AtomicReference<>();
+        final Source<Positioned<VerkehrsmittelActor.Command>, NotUsed> source = archiveFormat.isDefined()
+                ? archive(file, archiveFormat.get(), from)
+                    .map(command -> {
+                        position.set(command.getPosition());
+                        return command;
+                    })
+                    .concat(Source.lazily(() -> {
+                        archiveEnd.set(position.get());
+                        return Source.<Positioned<VerkehrsmittelActor.Command>>empty();
+                    }))
+                : end > from.getOffset() ? bulkImport(file, from, end) : tail(file, from);
 
-        if (ArrayUtils.isNotEmpty(values)) {
-            switch (values[0]) {
-                case CREATE_VERKEHRSMITTEL_COMMAND_ID:
-                    if (ArrayUtils.getLength(values) == 5) {
-                        return new VerkehrsmittelActor.Command.CreateVerkehrsmittel(Integer.parseInt(values[1]), values[2], values[3], List.of(StringUtils.split(values[4], ";")));
+        final ActorRef self = self();
+        final int generation = commandsGeneration;
+        source
+                .watchTermination((notUsed, done) -> done.whenComplete((ok, failure) -> {
+                    if (failure != null) {
+                        log.error(failure, "reading commands from {} failed", file);
                     }
-                    break;
-                case MOVE_VERKEHRSMITTEL_COMMAND_ID:
-                    if (ArrayUtils.getLength(values) == 3) {
-                        return new VerkehrsmittelActor.Command.MoveVerkehrsmittel(Integer.parseInt(values[1]), values[2]);
+                    final Checkpoint completed = failure == null ? archiveEnd.get() : null;
+                    self.tell(new FileClosed(file.toString(), completed, generation), ActorRef.noSender());
+                }))
+                .recoverWithRetries(1, Throwable.class, Source::empty)
+                .runWith(commands, materializer);
+    }
+
+    // imports the lines up to the given end in bulk, then tails the file from there
+    private Source<Positioned<VerkehrsmittelActor.Command>, NotUsed> bulkImport(Path file, Checkpoint from, long end) {
+        // the stream runs outside of this actor -> no access to the actor's context from within
+        final Executor parsers = context().dispatcher();
+        imports.put(file.toString(), new ImportProgress(from, end, System.nanoTime()));
+        log.info("bulk import of {} from {} ({} bytes)", file, from, end - from.getOffset());
+
+        // position after the last imported line (the tail starts there)
+        final AtomicReference<Checkpoint> position = new AtomicReference<>(from);
+        // read the file in line-aligned segments (memory-mapped) and parse them in parallel, keeping their order
+        return Source
+                .unfoldResource(() -> FileSegments.open(file, from.getOffset(), end, segmentSize), FileSegments::next, FileSegments::close)
+                .mapAsync(parseParallelism, segment -> CompletableFuture.supplyAsync(() -> parse(segment), parsers))
+                // number the lines (sequentially, i.e. after parsing)
+                .mapConcat(parsed -> {
+                    final java.util.List<Positioned<VerkehrsmittelActor.Command>> positioned = new ArrayList<>(parsed.getCommands().size());
+                    for (int i = 0; i < parsed.getEnds().length; i++) {
+                        position.set(position.get().at(parsed.getEnds()[i]));
+                        positioned.add(new Positioned<>(parsed.getCommands().get(i), position.get()));
                     }
-                    break;
-                default:
+                    return positioned;
+                })
+                .concat(Source.lazily(() -> tail(file, position.get())));
+    }
+
+    private Source<Positioned<VerkehrsmittelActor.Command>, NotUsed> tail(Path file, Checkpoint from) {
+        // start FileTailSource which continuously polls the file for new commands and emits them as reactive stream
+        return FileTailSource.create(file, READ_CHUNK_SIZE, from.getOffset(), pollInterval)
+                .via(lines(from))
+                .via(parser());
+    }
+
+    // reads the archive up to its end (decompressed), the lines up to the checkpoint are skipped
+    // (the offsets of the checkpoints of an archive refer to its decompressed content)
+    private Source<Positioned<VerkehrsmittelActor.Command>, NotUsed> archive(Path file, ArchiveFormat format, Checkpoint from) {
+        log.info("reading archive {} ({}) from {}", file, format, from);
+        return format.read(file, READ_CHUNK_SIZE)
+                .mapMaterializedValue(io -> NotUsed.getInstance())
+                .via(lines(Checkpoint.start(file)))
+                .filter(line -> line.getPosition().getLineNumber() > from.getLineNumber())
+                .via(parser());
+    }
+
+    // splits the chunks of bytes into lines, each with its position (end) in the file; an over-long line is skipped
+    // (noop), the last line is read as well at the end of the input (e.g. of an archive) even if it isn't terminated
+    private Flow<ByteString, Positioned<ByteString>, NotUsed> lines(Checkpoint from) {
+        return Flow.of(ByteString.class)
+                .map(Optional::of)
+                .concat(Source.single(Optional.empty()))
+                .statefulMapConcat(() -> {
+                    final LineSplitter lines = new LineSplitter(from, maxLineLength, skipped ->
+                            log.warning("line {} of {} is longer than {} bytes, skipped", skipped.getLineNumber(), skipped.getPath(), maxLineLength));
+                    return chunk -> chunk.isPresent() ? lines.next(chunk.get()) : lines.end();
+                });
+    }
+
+    // parses the lines in parallel (chunks of lines collected while the parsers are busy), keeping their order
+    private Flow<Positioned<ByteString>, Positioned<VerkehrsmittelActor.Command>, NotUsed> parser() {
+        // the stream runs outside of this actor -> no access to the actor's context from within
+        final Executor parsers = context().dispatcher();
+        return Flow.<Positioned<ByteString>>create()
+                .batch(parseChunkSize, InboundActor::newChunk, InboundActor::addToChunk)
+                .mapAsync(parseParallelism, lines -> CompletableFuture.supplyAsync(() -> parse(lines), parsers))
+                .mapConcat(parsed -> parsed);
+    }
+
+    // a failed (resp. cancelled) file is reopened by the next scan, a completely read archive once all of its commands
+    // are committed; a file read into a merge which has failed meanwhile is reopened as well (at its checkpoint)
+    private void fileClosed(FileClosed closed) {
+        if (closed.getEnd() == null || closed.getGeneration() != commandsGeneration) {
+            openFiles.remove(closed.getPath());
+        } else {
+            archiveEnds.put(closed.getPath(), closed.getEnd());
+            final Checkpoints completed = completeArchives(checkpoints);
+            if (completed != checkpoints) {
+                persist(completed, persisted -> this.checkpoints = persisted);
+            }
+        }
+    }
+
+    // marks the archives as completed whose commands have all been committed
+    private Checkpoints completeArchives(Checkpoints checkpoints) {
+        Checkpoints completed = checkpoints;
+        for (java.util.Iterator<Checkpoint> it = archiveEnds.values().iterator(); it.hasNext(); ) {
+            final Checkpoint end = it.next();
+            if (end.getLineNumber() == 0 || checkpoints.get(end.getPath()).exists(committed -> committed.getOffset() >= end.getOffset())) {
+                log.info("archive {} completed ({} lines)", end.getPath(), end.getLineNumber());
+                completed = completed.complete(end.getPath());
+                it.remove();
+            }
+        }
+        return completed;
+    }
+
+    // merges the commands of all files and sends them to the entities, at most n not yet acknowledged ones at a time
+    // (backpressure); the acknowledged commands are emitted in order, i.e. all commands up to their position are done
+    private Sink<Positioned<VerkehrsmittelActor.Command>, NotUsed> runCommands() {
+        return MergeHub.of(Positioned.<VerkehrsmittelActor.Command>type(), MERGE_BUFFER_SIZE)
+                .mapAsync(bulkImportEnabled ? bulkMaxInFlight : maxInFlight, command -> Patterns.ask(vmActor, command.getValue(), ackTimeout)
+                        .thenApply(ack -> command.getPosition()))
+                // commit the latest position per file periodically
+                .conflateWithSeed(Checkpoints::of, Checkpoints::add)
+                .throttle(1, checkpointInterval)
+                .to(Sink.actorRef(self(), StreamCompleted.instance()))
+                .run(materializer);
+    }
+
+    // logs the progress and throughput of the bulk imports (at most once per progress interval), resp. their completion
+    private void logProgress() {
+        final boolean due = System.nanoTime() - progressLoggedAt >= progressInterval.toNanos();
+        for (java.util.Iterator<ImportProgress> it = imports.values().iterator(); it.hasNext(); ) {
+            final ImportProgress progress = it.next();
+            // no checkpoint of the file yet (nothing committed since the import started) -> still at its start
+            final Checkpoint checkpoint = checkpoints.get(progress.getFrom().getPath()).getOrElse(progress.getFrom());
+            final long lines = checkpoint.getLineNumber() - progress.getFrom().getLineNumber();
+            final long bytes = checkpoint.getOffset() - progress.getFrom().getOffset();
+            final long total = progress.getEnd() - progress.getFrom().getOffset();
+            if (checkpoint.getOffset() >= progress.getEnd()) {
+                log.info("bulk import of {} lines from {} completed in {} s ({} lines/s)", lines, checkpoint.getPath(),
+                        Math.round(progress.elapsedSeconds()), Math.round(lines / progress.elapsedSeconds()));
+                it.remove();
+            } else if (due) {
+                log.info("bulk import of {}: {}% ({} bytes), {} lines/s", checkpoint.getPath(),
+                        bytes * 100 / total, bytes, Math.round(lines / progress.elapsedSeconds()));
             }
         }
-        // if there's no matching case return "noop" command (instead of null)
-        return VerkehrsmittelActor.Command.NoOp.instance();
+        if (due) {
+            progressLoggedAt = System.nanoTime();
+        }
+    }
+
+    // persistence id of the checkpoints (should not be changed!)
+    @Override
+    public String persistenceId() {
+        return "inbound";
+    }
+
+    private static java.util.List<Positioned<ByteString>> newChunk(Positioned<ByteString> line) {
+        final java.util.List<Positioned<ByteString>> lines = new ArrayList<>();
+        lines.add(line);
+        return lines;
+    }
+
+    private static java.util.List<Positioned<ByteString>> addToChunk(java.util.List<Positioned<ByteString>> lines, Positioned<ByteString> line) {
+        lines.add(line);
+        return lines;
+    }
+
+    // parses and converts the given lines (commands from file) into the appropriate verkehrsmittel commands (if possible)
+    private static java.util.List<Positioned<VerkehrsmittelActor.Command>> parse(java.util.List<Positioned<ByteString>> lines) {
+        final java.util.List<Positioned<VerkehrsmittelActor.Command>> commands = new ArrayList<>(lines.size());
+        for (Positioned<ByteString> line : lines) {
+            commands.add(new Positioned<>(CommandParser.parse(line.getValue()), line.getPosition()));
+        }
+        return commands;
+    }
+
+    // parses the lines of the given segment (each terminated by a line feed)
+    private static ParsedSegment parse(FileSegments.Segment segment) {
+        final byte[] bytes = segment.getBytes();
+        final java.util.List<VerkehrsmittelActor.Command> commands = new ArrayList<>();
+        final long[] ends = new long[count(bytes, LINE_FEED.head())];
+        int start = 0;
+        for (int i = 0; i < bytes.length; i++) {
+            if (bytes[i] == LINE_FEED.head()) {
+                ends[commands.size()] = segment.getOffset() + i + 1;
+                commands.add(CommandParser.parse(bytes, start, i));
+                start = i + 1;
+            }
+        }
+        return new ParsedSegment(commands, ends);
+    }
+
+    private static int count(byte[] bytes, byte value) {
+        int count = 0;
+        for (byte b : bytes) {
+            if (b == value) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    // position in a command file (after the last line read resp. committed)
+    @Value
+    static class Checkpoint implements Serializable {
+        String path;
+        // byte offset and number of the lines
+        long offset;
+        long lineNumber;
+
+        static Checkpoint start(Path path) {
+            return new Checkpoint(path.toString(), 0L, 0L);
+        }
+
+        Checkpoint next(int lineLength) {
+            return at(offset + lineLength);
+        }
+
+        // position after the next line which ends at the given offset
+        Checkpoint at(long end) {
+            return new Checkpoint(path, end, lineNumber + 1);
+        }
+    }
+
+    // positions of the command files (by path) and the archives read completely, persisted as checkpoint
+    @Value
+    static class Checkpoints implements Serializable {
+        Map<String, Checkpoint> positions;
+        Set<String> completed;
+
+        static Checkpoints empty() {
+            return new Checkpoints(HashMap.empty(), HashSet.empty());
+        }
+
+        static Checkpoints of(Checkpoint checkpoint) {
+            return new Checkpoints(HashMap.of(checkpoint.getPath(), checkpoint), HashSet.empty());
+        }
+
+        Checkpoints add(Checkpoint checkpoint) {
+            return new Checkpoints(positions.put(checkpoint.getPath(), checkpoint), completed);
+        }
+
+        Checkpoints merge(Checkpoints newer) {
+            return new Checkpoints(positions.merge(newer.positions, (older, latest) -> latest), completed.union(newer.completed));
+        }
+
+        Checkpoints complete(String path) {
+            return new Checkpoints(positions, completed.add(path));
+        }
+
+        // the checkpoints of the given files only (the same instance if there are no others)
+        Checkpoints retain(Set<String> paths) {
+            final Map<String, Checkpoint> retainedPositions = positions.filterKeys(paths::contains);
+            final Set<String> retainedCompleted = completed.retainAll(paths);
+            return retainedPositions.size() == positions.size() && retainedCompleted.size() == completed.size()
+                    ? this
+                    : new Checkpoints(retainedPositions, retainedCompleted);
+        }
+
+        // paths of the files with a checkpoint (position resp. completed)
+        Set<String> paths() {
+            return positions.keySet().union(completed);
+        }
+
+        boolean isCompleted(Path file) {
+            return completed.contains(file.toString());
+        }
+
+        Option<Checkpoint> get(Path file) {
+            return get(file.toString());
+        }
+
+        Option<Checkpoint> get(String path) {
+            return positions.get(path);
+        }
+    }
+
+    // line resp. command with the position after its line
+    @Value
+    static class Positioned<T> {
+        T value;
+        Checkpoint position;
+
+        @SuppressWarnings("unchecked")
+        static <T> Class<Positioned<T>> type() {
+            return (Class<Positioned<T>>) (Class<?>) Positioned.class;
+        }
+    }
+
+    // commands of a segment and the offsets of the ends of their lines
+    @Value
+    static class ParsedSegment {
+        java.util.List<VerkehrsmittelActor.Command> commands;
+        long[] ends;
+    }
+
+    // start and end of the bulk import of a file
+    @Value
+    static class ImportProgress {
+        Checkpoint from;
+        long end;
+        long startedAt;
+
+        double elapsedSeconds() {
+            return Math.max(1L, System.nanoTime() - startedAt) / 1e9;
+        }
+    }
+
+    // periodic trigger for scanning the directory for new files
+    @Value(staticConstructor = "instance")
+    static class Scan {
+    }
+
+    // the stream of a file has completed: failed (reopened by the next scan) resp. an archive read up to its end
+    @Value
+    static class FileClosed {
+        String path;
+        // position after the last line of an archive (null if failed or not read up to its end)
+        Checkpoint end;
+        // generation of the merge the file has been read into
+        int generation;
+    }
+
+    // the merge of the files never completes
+    @Value(staticConstructor = "instance")
+    static class StreamCompleted {
     }
 }
@@ -0,0 +1,95 @@
+
+package ch.sbb.ausbildung.eventsourcing.backend.in;
+
+import akka.util.ByteString;
+import ch.sbb.ausbildung.eventsourcing.backend.in.InboundActor.Checkpoint;
+import ch.sbb.ausbildung.eventsourcing.backend.in.InboundActor.Positioned;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * Splits the chunks of bytes read from a command file into lines (without their line feed), each with its position
+ * (end) in the file. A line longer than the max. line length is not buffered up to its end but skipped: it's emitted
+ * as an empty line (i.e. a "noop" command) with the position after it, so the checkpoint moves past it and the file
+ * isn't read again and again from the same position (as if the stream failed on it).
+ *
+ * Stateful (the incomplete last line of a chunk is continued by the next one), i.e. one instance per stream.
+ */
+final class LineSplitter {
+
+    private static final byte LINE_FEED = '\n';
+
+    private final int maxLineLength;
+    // called with the position after a skipped (over-long) line
+    private final Consumer<Checkpoint> skipped;
+    // position after the last line emitted
+    private Checkpoint position;
+    // start of the incomplete line (unless it's skipped)
+    private ByteString pending = ByteString.empty();
+    // length of the line skipped so far (-1 if none)
+    private long skippedLength = -1L;
+
+    LineSplitter(Checkpoint from, int maxLineLength, Consumer<Checkpoint> skipped) {
+        this.position = from;
+        this.maxLineLength = maxLineLength;
+        this.skipped = skipped;
+    }
+
+    // the lines completed by the given chunk
+    List<Positioned<ByteString>> next(ByteString chunk) {
+        List<Positioned<ByteString>> lines = Collections.emptyList();
+        int start = 0;
+        for (int end = chunk.indexOf(LINE_FEED, start); end >= 0; end = chunk.indexOf(LINE_FEED, start)) {
+            if (lines.isEmpty()) {
+                lines = new ArrayList<>();
+            }
+            final ByteString part = chunk.slice(start, end);
+            if (skippedLength >= 0) {
+                lines.add(skip(skippedLength + part.size() + 1));
+            } else if (pending.size() + part.size() > maxLineLength) {
+                lines.add(skip(pending.size() + part.size() + 1));
+            } else {
+                lines.add(line(pending.isEmpty() ? part : pending.concat(part)));
+            }
+            pending = ByteString.empty();
+            start = end + 1;
+        }
+        final ByteString rest = chunk.drop(start);
+        if (skippedLength >= 0) {
+            skippedLength += rest.size();
+        } else if (pending.size() + rest.size() > maxLineLength) {
+            skippedLength = pending.size() + rest.size();
+            pending = ByteString.empty();
+        } else if (!rest.isEmpty()) {
+            pending = pending.concat(rest);
+        }
+        return lines;
+    }
+
+    // the last line if it isn't terminated by a line feed (e.g. at the end of an archive), as if it were
+    List<Positioned<ByteString>> end() {
+        if (skippedLength >= 0) {
+            return Collections.singletonList(skip(skippedLength + 1));
+        } else if (!pending.isEmpty()) {
+            final Positioned<ByteString> line = line(pending);
+            pending = ByteString.empty();
+            return Collections.singletonList(line);
+        }
+        return Collections.emptyList();
+    }
+
+    private Positioned<ByteString> line(ByteString line) {
+        position = position.next(line.size() + 1);
+        return new Positioned<>(line, position);
+    }
+
+    private Positioned<ByteString> skip(long length) {
+        position = position.at(position.getOffset() + length);
+        skippedLength = -1L;
+        skipped.accept(position);
+        return new Positioned<>(ByteString.empty(), position);
+    }
+}
@@ -0,0 +1,109 @@
+
+package ch.sbb.ausbildung.eventsourcing.backend.vm;
+
+import akka.actor.ActorRef;
+import ch.sbb.ausbildung.eventsourcing.backend.vm.VerkehrsmittelActor.Event;
+import ch.sbb.ausbildung.eventsourcing.backend.vm.VerkehrsmittelActor.JournalEntry;
+import ch.sbb.ausbildung.eventsourcing.backend.vm.VerkehrsmittelActor.State;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+
+/**
+ * Events of a {@link VerkehrsmittelActor} not yet stored if batching is enabled: the current batch (not yet handed
+ * over to the journal) and the events being written, each with the sender of its command (acknowledged once written).
+ *
+ * The commands are validated against the pending state, i.e. the state incl. all of these events, so each command sees
+ * the effects of the earlier commands of the same batch. If the journal rejects events (e.g. not serializable), the
+ * pending state is derived anew from the state and the events still pending, so the rejected ones don't linger in it.
+ */
+final class EventBatch {
+
+    // what the entity has to do once an event has been added to the batch
+    enum Added {
+        // the first event of the batch -> start the batch window
+        FIRST,
+        // the batch is full -> write it
+        FULL,
+        // neither of both -> wait for further events resp. the end of the batch window
+        ADDED
+    }
+
+    private final int maxSize;
+    private final int maxCommandIds;
+    private State pendingState;
+    // the current batch and the senders of its commands
+    private List<JournalEntry> entries = new ArrayList<>();
+    private List<ActorRef> senders = new ArrayList<>();
+    // events being written (in the order handed over to the journal) and the senders of their commands
+    private final Deque<JournalEntry> writing = new ArrayDeque<>();
+    private final Deque<ActorRef> writingSenders = new ArrayDeque<>();
+
+    EventBatch(State state, int maxSize, int maxCommandIds) {
+        this.pendingState = state.copy();
+        this.maxSize = maxSize;
+        this.maxCommandIds = maxCommandIds;
+    }
+
+    // state incl. the events not yet stored, the commands are validated against
+    State pendingState() {
+        return pendingState;
+    }
+
+    boolean isEmpty() {
+        return entries.isEmpty();
+    }
+
+    // adds the event of a command to the batch (the verkehrsmittel of the entry as pending, for tagging)
+    Added add(Event event, ActorRef sender) {
+        apply(event);
+        entries.add(new JournalEntry(event, pendingState.verkehrsmittel().getOrNull()));
+        senders.add(sender);
+        if (entries.size() >= maxSize) {
+            return Added.FULL;
+        }
+        return entries.size() == 1 ? Added.FIRST : Added.ADDED;
+    }
+
+    // the entries of the batch to be written (then being written), a new batch is started
+    List<JournalEntry> write() {
+        final List<JournalEntry> batch = entries;
+        writing.addAll(batch);
+        writingSenders.addAll(senders);
+        entries = new ArrayList<>();
+        senders = new ArrayList<>();
+        return batch;
+    }
+
+    // entries written apart from the batches (e.g. events taken over), pending as well until written
+    void write(List<JournalEntry> written, ActorRef sender) {
+        written.forEach(entry -> {
+            apply(entry.getEvent());
+            writing.add(entry);
+            writingSenders.add(sender);
+        });
+    }
+
+    // the next event being written has been stored -> the sender of its command (to be acknowledged)
+    ActorRef written() {
+        writing.poll();
+        return writingSenders.poll();
+    }
+
+    // the next event being written has been rejected by the journal -> the sender of its command (to be notified);
+    // the pending state is derived anew from the (stored) state and the events still pending
+    ActorRef rejected(State state) {
+        writing.poll();
+        pendingState = state.copy();
+        writing.forEach(entry -> apply(entry.getEvent()));
+        entries.forEach(entry -> apply(entry.getEvent()));
+        return writingSenders.poll();
+    }
+
+    private void apply(Event event) {
+        pendingState.apply(event);
+        pendingState.limitCommandIds(maxCommandIds);
+    }
+}
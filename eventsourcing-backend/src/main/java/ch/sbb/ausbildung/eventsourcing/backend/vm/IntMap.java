@@ -0,0 +1,118 @@
+
+package ch.sbb.ausbildung.eventsourcing.backend.vm;
+
+/**
+ * Compact map with primitive <code>int</code> keys (open addressing, linear probing): keys and values are held in two
+ * arrays, so there is neither a boxed key nor an entry object per mapping, and a lookup doesn't allocate.
+ * Not thread-safe, i.e. to be used within an actor resp. to be published safely once built.
+ *
+ * @param <V> type of the values
+ */
+final class IntMap<V> {
+
+    private static final int EMPTY = 0;
+    private static final float LOAD_FACTOR = 0.5f;
+
+    // key 0 marks an empty slot, therefore its value is held separately
+    private int[] keys;
+    private Object[] values;
+    private Object zeroValue;
+    private boolean hasZero;
+    private int size;
+
+    IntMap(int expectedSize) {
+        final int capacity = Integer.highestOneBit(Math.max(2, (int) (expectedSize / LOAD_FACTOR)) - 1) << 1;
+        this.keys = new int[capacity];
+        this.values = new Object[capacity];
+    }
+
+    @SuppressWarnings("unchecked")
+    V get(int key) {
+        if (key == EMPTY) {
+            return (V) zeroValue;
+        }
+        final int mask = keys.length - 1;
+        for (int slot = hash(key) & mask; keys[slot] != EMPTY; slot = (slot + 1) & mask) {
+            if (keys[slot] == key) {
+                return (V) values[slot];
+            }
+        }
+        return null;
+    }
+
+    void put(int key, V value) {
+        if (key == EMPTY) {
+            size += hasZero ? 0 : 1;
+            hasZero = true;
+            zeroValue = value;
+            return;
+        }
+        final int mask = keys.length - 1;
+        int slot = hash(key) & mask;
+        while (keys[slot] != EMPTY && keys[slot] != key) {
+            slot = (slot + 1) & mask;
+        }
+        values[slot] = value;
+        if (keys[slot] == EMPTY) {
+            keys[slot] = key;
+            if (++size > keys.length * LOAD_FACTOR) {
+                grow();
+            }
+        }
+    }
+
+    void remove(int key) {
+        if (key == EMPTY) {
+            size -= hasZero ? 1 : 0;
+            hasZero = false;
+            zeroValue = null;
+            return;
+        }
+        final int mask = keys.length - 1;
+        int slot = hash(key) & mask;
+        while (keys[slot] != key) {
+            if (keys[slot] == EMPTY) {
+                return;
+            }
+            slot = (slot + 1) & mask;
+        }
+        // shift the following mappings of the probe sequence back into the gap (no tombstones)
+        int gap = slot;
+        for (int next = (gap + 1) & mask; keys[next] != EMPTY; next = (next + 1) & mask) {
+            final int home = hash(keys[next]) & mask;
+            if (((next - home) & mask) >= ((next - gap) & mask)) {
+                keys[gap] = keys[next];
+                values[gap] = values[next];
+                gap = next;
+            }
+        }
+        keys[gap] = EMPTY;
+        values[gap] = null;
+        size--;
+    }
+
+    int size() {
+        return size;
+    }
+
+    // doubles the capacity and re-inserts the mappings
+    @SuppressWarnings("unchecked")
+    private void grow() {
+        final int[] oldKeys = keys;
+        final Object[] oldValues = values;
+        keys = new int[oldKeys.length * 2];
+        values = new Object[oldValues.length * 2];
+        size = hasZero ? 1 : 0;
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldKeys[i] != EMPTY) {
+                put(oldKeys[i], (V) oldValues[i]);
+            }
+        }
+    }
+
+    // spreads the (often sequential) keys over the table
+    private static int hash(int key) {
+        final int h = key * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+}
@@ -0,0 +1,59 @@
+
+package ch.sbb.ausbildung.eventsourcing.backend.vm;
+
+import io.vavr.collection.List;
+
+import java.util.Arrays;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Route of a verkehrsmittel, i.e. its (interned) "fahrtpunkte" and the index of their positions by station id
+ * (see {@link Stations}): two int arrays, the sorted station ids and their positions, i.e. a lookup is a binary search
+ * without boxing. The routes are shared: all verkehrsmittel running the same line refer to the same instance (keyed by
+ * the interned fahrtpunkte), so a route is held (and indexed) only once per line instead of once per verkehrsmittel.
+ * A route is immutable once created, i.e. it can be shared by any thread.
+ */
+final class Route {
+
+    // no position in the route
+    static final int NONE = -1;
+
+    private static final ConcurrentMap<List<String>, Route> ROUTES = new ConcurrentHashMap<>();
+
+    private final List<String> fahrtpunkte;
+    // ids of the stations of the route (sorted, each once) and the (last) position of each of them in the route
+    private final int[] stationIds;
+    private final int[] positions;
+
+    // the fahrtpunkte are interned
+    private Route(List<String> fahrtpunkte) {
+        this.fahrtpunkte = fahrtpunkte;
+        final TreeMap<Integer, Integer> positionsById = new TreeMap<>();
+        int position = 0;
+        for (String fahrtpunkt : fahrtpunkte) {
+            positionsById.put(Stations.id(fahrtpunkt), position++);
+        }
+        this.stationIds = positionsById.keySet().stream().mapToInt(Integer::intValue).toArray();
+        this.positions = positionsById.values().stream().mapToInt(Integer::intValue).toArray();
+    }
+
+    // the shared route with the given fahrtpunkte (the route, and the key of the routes, hold the interned fahrtpunkte
+    // instead of the given ones)
+    static Route of(List<String> fahrtpunkte) {
+        final Route route = ROUTES.get(fahrtpunkte);
+        return route != null ? route : ROUTES.computeIfAbsent(fahrtpunkte.map(Stations::intern), Route::new);
+    }
+
+    List<String> getFahrtpunkte() {
+        return fahrtpunkte;
+    }
+
+    // (last) position of the given station in the route, NONE if it's not part of the route
+    int positionOf(String station) {
+        final int id = Stations.idOf(station);
+        final int index = id == Stations.NONE ? -1 : Arrays.binarySearch(stationIds, id);
+        return index >= 0 ? positions[index] : NONE;
+    }
+}
@@ -0,0 +1,46 @@
+
+package ch.sbb.ausbildung.eventsourcing.backend.vm;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Shared dictionary of the station codes ("fahrtpunkte", e.g. <tt>ZUE</tt>): every code is held only once, no matter
+ * how many verkehrsmittel pass the station, and each code is assigned a small int id (in order of appearance) by which
+ * the routes index their stations (see {@link Route}).
+ * The number of stations is small and stable, so the dictionary isn't bounded.
+ */
+final class Stations {
+
+    // no id (unknown station)
+    static final int NONE = -1;
+
+    private static final ConcurrentMap<String, String> CODES = new ConcurrentHashMap<>();
+    private static final ConcurrentMap<String, Integer> IDS = new ConcurrentHashMap<>();
+    private static final AtomicInteger NEXT_ID = new AtomicInteger();
+
+    private Stations() {
+    }
+
+    // the shared instance of the given station code (null-safe)
+    static String intern(String code) {
+        if (code == null) {
+            return null;
+        }
+        final String existing = CODES.putIfAbsent(code, code);
+        return existing != null ? existing : code;
+    }
+
+    // id of the given station code (assigned if it's a new one)
+    static int id(String code) {
+        final Integer id = IDS.get(code);
+        return id != null ? id : IDS.computeIfAbsent(intern(code), added -> NEXT_ID.getAndIncrement());
+    }
+
+    // id of the given station code, NONE if it's unknown (no id is assigned, e.g. for invalid commands)
+    static int idOf(String code) {
+        final Integer id = IDS.get(code);
+        return id != null ? id : NONE;
+    }
+}
@@ -1,10 +1,14 @@
 
 package ch.sbb.ausbildung.eventsourcing.backend.vm;
 
+import com.fasterxml.jackson.annotation.JsonProperty;
 import io.vavr.collection.List;
 import io.vavr.control.Option;
+import lombok.AccessLevel;
 import lombok.Builder;
 import lombok.EqualsAndHashCode;
+import lombok.Getter;
+import lombok.ToString;
 import lombok.Value;
 import lombok.experimental.NonFinal;
 
@@ -19,33 +23,83 @@ import java.io.Serializable;
  * <tt>aktuellePosition</tt> and <tt>delay</tt> are non final and can be (re)set after the entity has been created
  * via event.
  *
+ * The route is shared by all verkehrsmittel running the same line and indexed once by the ids of its stations
+ * (see {@link Route}, {@link Stations}); the current position is held as index as well, so checking a move
+ * ({@link #canMoveTo(String)}) is a lookup and a comparison, independent of the length of the route. Therefore a
+ * verkehrsmittel itself holds only a few fields besides its shared route, even in large fleets.
+ *
  * (For ease of use the lombok plugin is used in order to save some boilerplate code,
  *  although i'm not a fan of such code generation ;-)
  */
 @Value
-@Builder
 @EqualsAndHashCode(of = "vmNummer")
-class Verkehrsmittel implements Serializable {
+@ToString(exclude = {"route", "positionIndex"})
+public class Verkehrsmittel implements Serializable {
+    // no position (yet), i.e. before the first station of the route
+    private static final int NO_POSITION = Route.NONE;
+
     private final int vmNummer;
 
     private final String vmArt;
 
     private final String bezeichnung;
 
+    // of the shared route
     private final List<String> fahrtpunkte;
+    // upper case (as serialized to the client)
     @NonFinal
     private String aktuellePosition;
 
     @NonFinal
     private Integer delay;
 
-    // null-safe getter
+    // shared route, derived from the fahrtpunkte
+    @Getter(AccessLevel.NONE)
+    private final transient Route route;
+    // index of the current position in the route, derived from the aktuellePosition
+    @Getter(AccessLevel.NONE)
+    @NonFinal
+    private transient int positionIndex;
+
+    @Builder(toBuilder = true)
+    private Verkehrsmittel(int vmNummer, String vmArt, String bezeichnung, List<String> fahrtpunkte, String aktuellePosition, Integer delay) {
+        this(vmNummer, vmArt, bezeichnung, null, delay, Route.of(fahrtpunkte), NO_POSITION);
+        setAktuellePosition(aktuellePosition);
+    }
+
+    private Verkehrsmittel(int vmNummer, String vmArt, String bezeichnung, String aktuellePosition, Integer delay,
+                           Route route, int positionIndex) {
+        this.vmNummer = vmNummer;
+        this.vmArt = vmArt;
+        this.bezeichnung = bezeichnung;
+        this.fahrtpunkte = route.getFahrtpunkte();
+        this.aktuellePosition = aktuellePosition;
+        this.delay = delay;
+        this.route = route;
+        this.positionIndex = positionIndex;
+    }
+
+    // null-safe getter (also serialized to the client)
+    @JsonProperty("aktuellePosition")
     Option<String> getAktuellePosition() {
-        return Option.of(aktuellePosition).map(String::toUpperCase);
+        return Option.of(aktuellePosition);
+    }
+
+    // whether the given station is on the route after the current position (i.e. not yet passed)
+    boolean canMoveTo(String station) {
+        final int index = route.positionOf(station);
+        return index != NO_POSITION && index > positionIndex;
+    }
+
+    // the fahrtpunkte from the current position on (incl.), i.e. the stations the verkehrsmittel is at or due to pass
+    // (the same list instance as long as the position doesn't change, the tail of the shared route)
+    public List<String> remainingFahrtpunkte() {
+        return positionIndex == NO_POSITION ? fahrtpunkte : fahrtpunkte.drop(positionIndex);
     }
 
     Verkehrsmittel setAktuellePosition(String aktuellePosition) {
-        this.aktuellePosition = aktuellePosition;
+        this.aktuellePosition = aktuellePosition == null ? null : Stations.intern(aktuellePosition.toUpperCase());
+        this.positionIndex = this.aktuellePosition == null ? NO_POSITION : route.positionOf(this.aktuellePosition);
         return this;
     }
 
@@ -53,4 +107,24 @@ class Verkehrsmittel implements Serializable {
         this.delay = delay;
         return this;
     }
+
+    // copy of this verkehrsmittel (incl. the current position and delay), sharing the route
+    Verkehrsmittel copy() {
+        return new Verkehrsmittel(vmNummer, vmArt, bezeichnung, aktuellePosition, delay, route, positionIndex);
+    }
+
+    // copy at the given position resp. with the given delay (e.g. for immutable projections)
+    public Verkehrsmittel withAktuellePosition(String aktuellePosition) {
+        return copy().setAktuellePosition(aktuellePosition);
+    }
+
+    public Verkehrsmittel withDelay(Integer delay) {
+        return copy().setDelay(delay);
+    }
+
+    // the route isn't serialized -> looked up again by the fahrtpunkte if read by java serialization (e.g. a message
+    // not bound to the VerkehrsmittelSerializer, see application.conf)
+    private Object readResolve() {
+        return toBuilder().build();
+    }
 }
@@ -1,15 +1,21 @@
 
 package ch.sbb.ausbildung.eventsourcing.backend.vm;
 
+import akka.actor.ActorRef;
 import akka.actor.Props;
+import akka.actor.Status;
 import akka.event.LoggingAdapter;
-import akka.persistence.AbstractPersistentActor;
+import akka.persistence.AbstractPersistentActorWithTimers;
+import akka.persistence.DeleteSnapshotsFailure;
+import akka.persistence.RecoveryCompleted;
+import akka.persistence.SaveSnapshotFailure;
+import akka.persistence.SaveSnapshotSuccess;
+import akka.persistence.SnapshotOffer;
+import akka.persistence.SnapshotSelectionCriteria;
 import ch.sbb.ausbildung.eventsourcing.backend.vm.VerkehrsmittelActor.Event.VerkehrsmittelCreated;
 import ch.sbb.ausbildung.eventsourcing.backend.vm.VerkehrsmittelActor.Event.VerkehrsmittelDelayed;
 import ch.sbb.ausbildung.eventsourcing.backend.vm.VerkehrsmittelActor.Event.VerkehrsmittelMoved;
-import io.vavr.collection.HashMap;
 import io.vavr.collection.List;
-import io.vavr.collection.Map;
 import io.vavr.control.Option;
 import lombok.Builder;
 import lombok.NonNull;
@@ -17,44 +23,119 @@ import lombok.Value;
 import scala.Immutable;
 
 import java.io.Serializable;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.Set;
 
 /**
- * Persistent actor handling all incoming commands (i.e. VerkehrsmittelCommand from inbound actor or user):
- * it validates the incoming command and if it's applicable it will create an appropriate event (fact) out of it and
- * stores it in the event store (journal). If the event has succesfully been stored it will also be applied to the current
- * <code>state</code> (mutate the state due to the fact i.e. event that happened)
+ * Persistent actor handling all incoming commands (i.e. VerkehrsmittelCommand from inbound actor or user) of a single
+ * "Verkehrsmittel" entity: it validates the incoming command and if it's applicable it will create an appropriate event
+ * (fact) out of it and stores it in the event store (journal). If the event has succesfully been stored it will also be
+ * applied to the current <code>state</code> (mutate the state due to the fact i.e. event that happened)
  * When this actor restarts, it first recovers all of the stored events from journal in order to restore the last active state
- * (see {@link #receiveRecover()}. Messages arriving while the actor is restarting will be stashed away until
+ * (see {@link #createReceiveRecover()}. Messages arriving while the actor is restarting will be stashed away until
+ * the recovery has finished.
+ * In order to keep the recovery short, a snapshot of the <code>state</code> is taken every n events and/or periodically
+ * (see <code>eventsourcing.snapshot</code> in "application.conf"); the recovery then starts with the latest snapshot
+ * and only replays the events stored after it. Older snapshots are deleted as soon as a new one has been saved.
+ *
+ * Optionally (see <code>eventsourcing.batching</code> in "application.conf") the events of a command burst are
+ * collected in a batch and written with a single <code>persistAllAsync</code> once the batch is full or the batch window
+ * has elapsed. In this mode the commands are validated against the <code>pendingState</code>, i.e. the state incl. all
+ * events not yet stored, so each command sees the effects of the earlier commands of the same batch (see
+ * {@link EventBatch}). The commands of a batch are acknowledged only once their events have been written; if the journal
+ * rejects the events, their commands fail (<code>Status.Failure</code>) and the pending state drops them again.
+ *
+ * There is one instance of this actor per verkehrsmittel (identified by its <code>vmNummer</code>), each of them having
+ * its own persistence id (<code>vm-&lt;vmNummer&gt;</code>). The instances are created and addressed by the
+ * {@link VerkehrsmittelRegion} which routes the commands to the appropriate entity.
+ *
+ * Every command is acknowledged to its sender ({@link Ack}) as soon as it has been handled, i.e. its event has been
+ * stored (also if batched) or the command has been rejected; this allows the senders to apply flow control, and an
+ * acknowledged command is never lost (e.g. the checkpoints of the {@code InboundActor} are based on the acks).
+ *
+ * A command may carry an id ({@link Command.Identified}, e.g. assigned by an upstream with at-least-once delivery):
+ * the ids of the latest commands applied are kept in the <code>state</code> (stored with the events and in the
+ * snapshots), so a re-delivered command is dropped (and acknowledged) before it's validated or persisted. Only the ids
+ * of the latest n commands are kept (see <code>eventsourcing.deduplication</code> in "application.conf"), i.e. a
+ * command re-delivered after more than n further commands of the same verkehrsmittel is applied again.
+ *
+ * Each event stored is pushed to the local subscribers (e.g. the event hub of the websocket clients) on the
+ * event stream of the actor system as {@link StoredEvent} right away, i.e. they don't have to poll the event store.
+ *
+ * The events are stored with tags (event type, vmArt, route) which are added by the {@link VerkehrsmittelTagging}
+ * adapter, therefore each event is handed over to the journal together with its verkehrsmittel (see {@link JournalEntry}).
  *
  * @see <a href="https://doc.akka.io/docs/akka/current/persistence.html#persistence">Persistent Actors</a>
  * @see <a href="https://doc.akka.io/docs/akka/current/persistence.html#event-sourcing">Eventsourcing</a>
+ * @see <a href="https://doc.akka.io/docs/akka/current/persistence.html#snapshots">Snapshots</a>
  */
-public class VerkehrsmittelActor extends AbstractPersistentActor {
+public class VerkehrsmittelActor extends AbstractPersistentActorWithTimers {
 
-    private final LoggingAdapter log = context().system().log();
+    // prefix of the persistence id of every "verkehrsmittel" entity (followed by its vmNummer)
+    public static final String PERSISTENCE_ID_PREFIX = "vm-";
 
-    private final State state;
+    private static final String SNAPSHOT_TIMER = "snapshot";
+    private static final String BATCH_TIMER = "batch";
+
+    private final LoggingAdapter log = context().system().log();
 
-    private VerkehrsmittelActor() {
+    // snapshot settings (defined in "application.conf", 0 = disabled)
+    private final int snapshotEveryNEvents = context().system().settings().config().getInt("eventsourcing.snapshot.every-n-events");
+    private final Duration snapshotInterval = context().system().settings().config().getDuration("eventsourcing.snapshot.interval");
+    // batching settings (defined in "application.conf")
+    private final boolean batchingEnabled = context().system().settings().config().getBoolean("eventsourcing.batching.enabled");
+    private final int batchMaxSize = context().system().settings().config().getInt("eventsourcing.batching.max-size");
+    private final Duration batchWindow = context().system().settings().config().getDuration("eventsourcing.batching.window");
+    // max. number of command ids kept for deduplication (defined in "application.conf")
+    private final int maxCommandIds = context().system().settings().config().getInt("eventsourcing.deduplication.max-command-ids");
+
+    private final int vmNummer;
+    private State state;
+    // number of events applied since the last snapshot
+    private int eventsSinceSnapshot;
+    // events not yet stored (current batch and writes in flight) incl. the state with them, only if batching is enabled
+    private EventBatch batch;
+    // sender of the command whose event is being written (if batching is disabled)
+    private ActorRef persistingSender;
+    // id of the command currently handled (null if it has none)
+    private String commandId;
+
+    private VerkehrsmittelActor(int vmNummer) {
+        this.vmNummer = vmNummer;
         this.state = State.empty();
     }
 
-    // recovering all events from event store while (re)starting actor
+    // recovering the latest snapshot and all events stored after it from event store while (re)starting actor
     @Override
     public Receive createReceiveRecover() {
         return receiveBuilder()
+                .match(SnapshotOffer.class, offer -> {
+                    log.debug("recover snapshot: {}", offer.metadata());
+                    this.state = (State) offer.snapshot();
+                })
                 .match(VerkehrsmittelCreated.class, evt -> {
-                    log.info("recover event: {}", evt);
+                    log.debug("recover event: {}", evt);
                     this.eventHandler(evt);
                 })
                 .match(VerkehrsmittelMoved.class, evt -> {
-                    log.info("recover event: {}", evt);
+                    log.debug("recover event: {}", evt);
                     this.eventHandler(evt);
                 })
                 .match(VerkehrsmittelDelayed.class, evt -> {
-                    log.info("recover event: {}", evt);
+                    log.debug("recover event: {}", evt);
                     this.eventHandler(evt);
                 })
+                .match(RecoveryCompleted.class, completed -> {
+                    if (batchingEnabled) {
+                        batch = new EventBatch(state, batchMaxSize, maxCommandIds);
+                    }
+                    if (!snapshotInterval.isZero()) {
+                        getTimers().startPeriodicTimer(SNAPSHOT_TIMER, SnapshotTick.instance(), snapshotInterval);
+                    }
+                })
                 .build();
     }
 
@@ -65,31 +146,71 @@ public class VerkehrsmittelActor extends AbstractPersistentActor {
                 .match(Command.CreateVerkehrsmittel.class, this::commandHandler)
                 .match(Command.MoveVerkehrsmittel.class, this::commandHandler)
                 .match(Command.DelayVerkehrsmittel.class, this::commandHandler)
+                .match(Command.Identified.class, this::commandHandler)
                 // debug or test command (retrieves the current state)
                 .match(Command.GetState.class, this::commandHandler)
+                .match(FlushBatch.class, flush -> flushBatch())
+                .match(LegacyEvents.class, this::takeOver)
+                // snapshot handling
+                .match(SnapshotTick.class, tick -> {
+                    if (eventsSinceSnapshot > 0) {
+                        takeSnapshot();
+                    }
+                })
+                .match(SaveSnapshotSuccess.class, this::snapshotSaved)
+                .match(SaveSnapshotFailure.class, failure ->
+                        log.warning("saving snapshot {} failed: {}", failure.metadata(), failure.cause()))
+                .match(DeleteSnapshotsFailure.class, failure ->
+                        log.warning("deleting old snapshots failed: {}", failure.cause()))
                 .build();
     }
 
+    // drops the command if a command with the same id has already been applied, otherwise it's handled as usual
+    private void commandHandler(Command.Identified identified) {
+        if (validationState().isDuplicate(identified.getCommandId())) {
+            log.debug("dropping duplicate command {}", identified.getCommandId());
+            ack();
+            return;
+        }
+        commandId = identified.getCommandId();
+        try {
+            final Command command = identified.getCommand();
+            if (command instanceof Command.CreateVerkehrsmittel) {
+                commandHandler((Command.CreateVerkehrsmittel) command);
+            } else if (command instanceof Command.MoveVerkehrsmittel) {
+                commandHandler((Command.MoveVerkehrsmittel) command);
+            } else if (command instanceof Command.DelayVerkehrsmittel) {
+                commandHandler((Command.DelayVerkehrsmittel) command);
+            } else {
+                ack();
+            }
+        } finally {
+            commandId = null;
+        }
+    }
+
     private void commandHandler(Command.MoveVerkehrsmittel move) {
         // if command's position is not yet passed -> set it as new position
-        if (state.verkehrsmittelByVmNummer(move.getVmNummer())
-                // shorten list of "fahrtpunkte" so that only those stops remain which haven't been passed yet ("übrigbleibende Fahrtpunkte")
-                .map(vm -> vm.getFahrtpunkte().takeRightUntil(punkt -> punkt.equals(vm.getAktuellePosition().getOrElse(""))))
-                .map(restlicheFahrtpunkte -> restlicheFahrtpunkte.contains(move.getAktuellePosition())).getOrElse(false)) {
+        // (only those stops which haven't been passed yet, "übrigbleibende Fahrtpunkte", are valid)
+        final Verkehrsmittel vm = validationState().verkehrsmittel().getOrNull();
+        if (vm != null && vm.canMoveTo(move.getAktuellePosition())) {
 
             // create event (fact) and save it into event store
-            persist(VerkehrsmittelMoved.builder()
+            persistEvent(VerkehrsmittelMoved.builder()
                     .vmNummer(move.getVmNummer())
                     .aktuellePosition(move.getAktuellePosition())
-                    .build(), this::eventHandler);
+                    .commandId(commandId)
+                    .build());
+        } else {
+            ack();
         }
     }
 
     private void commandHandler(Command.CreateVerkehrsmittel command) {
-        if (!state.containsVerkehrsmittel(command.vmNummer)) {
+        if (!validationState().isCreated()) {
 
             // create event (fact) and save it into event store
-            persist(VerkehrsmittelCreated.builder()
+            persistEvent(VerkehrsmittelCreated.builder()
                     .vmNummer(command.vmNummer)
                     .verkehrsmittel(Verkehrsmittel.builder()
                             .vmNummer(command.vmNummer)
@@ -97,53 +218,168 @@ public class VerkehrsmittelActor extends AbstractPersistentActor {
                             .bezeichnung(command.bezeichnung)
                             .fahrtpunkte(command.getFahrtpunkte())
                             .build())
-                    .build(), this::eventHandler);
+                    .commandId(commandId)
+                    .build());
+        } else {
+            ack();
         }
     }
 
     private void commandHandler(Command.DelayVerkehrsmittel command) {
-        if (state.containsVerkehrsmittel(command.getVmNummer())) {
+        if (validationState().isCreated()) {
 
             // create event (fact) and save it into event store
-            persist(VerkehrsmittelDelayed.builder()
+            persistEvent(VerkehrsmittelDelayed.builder()
                     .vmNummer(command.getVmNummer())
                     .delay(command.getDelay() == 0 ? null : command.getDelay())
-                    .build(), this::eventHandler);
+                    .commandId(commandId)
+                    .build());
+        } else {
+            ack();
         }
     }
 
-    // debug or test command to retrieve the current state
+    // debug or test command to retrieve the current state (a copy, the state itself is mutable)
     private void commandHandler(Command.GetState getState) {
-        sender().tell(state.verkehrsmittel, self());
+        sender().tell(state.verkehrsmittel().map(Verkehrsmittel::copy), self());
+    }
+
+    // takes over the events of the former single entity of all verkehrsmittel as the first events of this entity,
+    // unless it already has events of its own (i.e. they have already been taken over, or it has been created anew)
+    private void takeOver(LegacyEvents legacy) {
+        if (lastSequenceNr() > 0 || batchingEnabled && !batch.isEmpty()) {
+            log.debug("legacy events of {} not taken over, it has events of its own", persistenceId());
+            return;
+        }
+        // the verkehrsmittel after each event (for tagging)
+        final State migrated = State.empty();
+        final java.util.List<JournalEntry> entries = new ArrayList<>();
+        legacy.getEvents().forEach(event -> {
+            migrated.apply(event);
+            entries.add(new JournalEntry(event, migrated.verkehrsmittel().map(Verkehrsmittel::copy).getOrNull()));
+        });
+        // no command to notify if the events are rejected
+        if (batchingEnabled) {
+            batch.write(entries, context().system().deadLetters());
+        } else {
+            persistingSender = context().system().deadLetters();
+        }
+        persistAll(entries, entry -> {
+            eventHandler(entry.getEvent());
+            if (batchingEnabled) {
+                batch.written();
+            }
+        });
+    }
+
+    // state the commands are validated against (incl. the not yet stored events if batching is enabled)
+    private State validationState() {
+        return batchingEnabled ? batch.pendingState() : state;
+    }
+
+    // stores the event (fact) in the event store, either directly or as part of the current batch, and acknowledges the
+    // command once the event has been written
+    private void persistEvent(Event event) {
+        if (batchingEnabled) {
+            final EventBatch.Added added = batch.add(event, sender());
+            if (added == EventBatch.Added.FULL) {
+                flushBatch();
+            } else if (added == EventBatch.Added.FIRST) {
+                getTimers().startSingleTimer(BATCH_TIMER, FlushBatch.instance(), batchWindow);
+            }
+        } else {
+            persistingSender = sender();
+            persist(new JournalEntry(event, state.verkehrsmittel().getOrNull()), entry -> {
+                eventHandler(entry.getEvent());
+                ack();
+            });
+        }
+    }
+
+    // acknowledges the command currently handled to its sender
+    private void ack() {
+        sender().tell(Ack.instance(), self());
+    }
+
+    // writes all events of the current batch at once (commands are not stashed meanwhile)
+    private void flushBatch() {
+        getTimers().cancel(BATCH_TIMER);
+        if (!batch.isEmpty()) {
+            // the handler is called per event once written, in the order of the batch
+            persistAllAsync(batch.write(), entry -> {
+                eventHandler(entry.getEvent());
+                batch.written().tell(Ack.instance(), self());
+            });
+        }
+    }
+
+    // the journal has rejected the event (e.g. not serializable), the entity keeps running: the command fails and the
+    // event is dropped from the pending state (its handler isn't called, i.e. it's not applied to the state anyway)
+    @Override
+    public void onPersistRejected(Throwable cause, Object event, long seqNr) {
+        super.onPersistRejected(cause, event, seqNr);
+        final ActorRef sender = batchingEnabled ? batch.rejected(state) : persistingSender;
+        sender.tell(new Status.Failure(cause), self());
+    }
+
+    private void eventHandler(Event event) {
+        state.apply(event);
+        state.limitCommandIds(maxCommandIds);
+        eventApplied();
+        if (!recoveryRunning()) {
+            // sequence number of the event just stored, i.e. the same as read from the event store
+            context().system().eventStream().publish(new StoredEvent(persistenceId(), lastSequenceNr(), event));
+        }
     }
 
-    private void eventHandler(VerkehrsmittelCreated created) {
-        state.verkehrsmittelCreated(created);
+    // counts the applied events and takes a snapshot every n events (not while recovering)
+    private void eventApplied() {
+        eventsSinceSnapshot++;
+        if (snapshotEveryNEvents > 0 && eventsSinceSnapshot >= snapshotEveryNEvents && !recoveryRunning()) {
+            takeSnapshot();
+        }
     }
 
-    private void eventHandler(VerkehrsmittelMoved moved) {
-        state.verkehrsmittelMoved(moved);
+    // the snapshot is serialized asynchronously, so a copy of the (mutable) state is handed over
+    private void takeSnapshot() {
+        saveSnapshot(state.copy());
+        eventsSinceSnapshot = 0;
     }
 
-    private void eventHandler(VerkehrsmittelDelayed delayed) {
-        state.verkehrsmitteDelayed(delayed);
+    // only the latest snapshot is needed for recovery -> delete the older ones
+    private void snapshotSaved(SaveSnapshotSuccess success) {
+        log.debug("snapshot saved: {}", success.metadata());
+        deleteSnapshots(SnapshotSelectionCriteria.create(success.metadata().sequenceNr() - 1, Long.MAX_VALUE));
     }
 
-    // persistence id used to identify the events in the event store (should not be changed!)
+    // persistence id used to identify the events of this entity in the event store (should not be changed!)
     @Override
     public String persistenceId() {
-        return "vm";
+        return persistenceIdOf(vmNummer);
+    }
+
+    public static String persistenceIdOf(int vmNummer) {
+        return PERSISTENCE_ID_PREFIX + vmNummer;
+    }
+
+    public static int vmNummerOf(String persistenceId) {
+        return Integer.parseInt(persistenceId.substring(PERSISTENCE_ID_PREFIX.length()));
     }
 
-    public static Props props() {
-        return Props.create(VerkehrsmittelActor.class, VerkehrsmittelActor::new);
+    static Props props(int vmNummer) {
+        return Props.create(VerkehrsmittelActor.class, () -> new VerkehrsmittelActor(vmNummer));
     }
 
 
     // Commands
     public interface Command extends Immutable {
+        // commands addressed to a single "verkehrsmittel" entity (routed by its vmNummer)
+        interface EntityCommand extends Command {
+            int getVmNummer();
+        }
+
         @Value
-        class CreateVerkehrsmittel implements Command {
+        class CreateVerkehrsmittel implements EntityCommand {
             final int vmNummer;
             final String vmArt;
             final String bezeichnung;
@@ -151,17 +387,29 @@ public class VerkehrsmittelActor extends AbstractPersistentActor {
         }
 
         @Value
-        class MoveVerkehrsmittel implements Command {
+        class MoveVerkehrsmittel implements EntityCommand {
             final int vmNummer;
             final String aktuellePosition;
         }
 
         @Value
-        class DelayVerkehrsmittel implements Command {
+        class DelayVerkehrsmittel implements EntityCommand {
             final int vmNummer;
             final int delay;
         }
 
+        // command with an id (unique per verkehrsmittel) to drop it if it's delivered more than once
+        @Value
+        class Identified implements EntityCommand {
+            final String commandId;
+            final EntityCommand command;
+
+            @Override
+            public int getVmNummer() {
+                return command.getVmNummer();
+            }
+        }
+
         @Value(staticConstructor = "instance")
         class GetState implements Command {
         }
@@ -171,14 +419,25 @@ public class VerkehrsmittelActor extends AbstractPersistentActor {
         }
     }
 
+    // acknowledgement of a command (handled, i.e. stored or rejected)
+    @Value(staticConstructor = "instance")
+    public static class Ack implements Immutable {
+    }
+
     // Events (facts, cannot be deleted once applied)
     public interface Event extends Immutable, Serializable {
+        int getVmNummer();
+
+        // id of the command the event results from (null if the command had none)
+        String getCommandId();
+
         @Value
         @Builder
         class VerkehrsmittelCreated implements Event {
             private final int vmNummer;
             @NonNull
             private final Verkehrsmittel verkehrsmittel;
+            private final String commandId;
         }
 
         @Value
@@ -187,6 +446,7 @@ public class VerkehrsmittelActor extends AbstractPersistentActor {
             private final int vmNummer;
             @NonNull
             private final String aktuellePosition;
+            private final String commandId;
         }
 
         @Value
@@ -194,32 +454,109 @@ public class VerkehrsmittelActor extends AbstractPersistentActor {
         class VerkehrsmittelDelayed implements Event {
             private final int vmNummer;
             private final Integer delay;
+            private final String commandId;
         }
     }
 
-    // current state of VerkehrsmittelActor
-    static class State {
+    // event as pushed to the local subscribers once it has been stored, incl. its persistence id and sequence number
+    @Value
+    public static class StoredEvent implements Immutable {
+        String persistenceId;
+        long sequenceNr;
+        Event event;
+    }
+
+    // event as handed over to the journal: incl. its verkehrsmittel (used for tagging, only the event is stored)
+    @Value
+    static class JournalEntry {
+        Event event;
+        Verkehrsmittel verkehrsmittel;
+    }
+
+    // events of this verkehrsmittel stored by the former single entity of all verkehrsmittel (in the order stored)
+    @Value
+    static class LegacyEvents {
+        List<Event> events;
+    }
+
+    // trigger for writing the current batch (batch window elapsed)
+    @Value(staticConstructor = "instance")
+    static class FlushBatch {
+    }
+
+    // periodic trigger for taking a snapshot (if there are new events since the last one)
+    @Value(staticConstructor = "instance")
+    static class SnapshotTick {
+    }
+
+    // current state of VerkehrsmittelActor (i.e. of a single "verkehrsmittel" entity), also saved as snapshot
+    static class State implements Serializable {
+
+        private Option<Verkehrsmittel> verkehrsmittel = Option.none();
+        // ids of the latest commands applied (oldest first)
+        private final LinkedHashSet<String> commandIds = new LinkedHashSet<>();
+
+        boolean isCreated() {
+            return verkehrsmittel.isDefined();
+        }
 
-        Map<Integer, Verkehrsmittel> verkehrsmittel = HashMap.empty();
+        Option<Verkehrsmittel> verkehrsmittel() {
+            return verkehrsmittel;
+        }
+
+        boolean isDuplicate(String commandId) {
+            return commandIds.contains(commandId);
+        }
+
+        Set<String> commandIds() {
+            return commandIds;
+        }
 
-        boolean containsVerkehrsmittel(int vmNummer) {
-            return verkehrsmittel.containsKey(vmNummer);
+        void addCommandId(String commandId) {
+            commandIds.add(commandId);
         }
 
-        Option<Verkehrsmittel> verkehrsmittelByVmNummer(int vmNummer) {
-            return verkehrsmittel.get(vmNummer);
+        // forgets the oldest command ids beyond the given max. number
+        void limitCommandIds(int max) {
+            final Iterator<String> oldest = commandIds.iterator();
+            while (commandIds.size() > max) {
+                oldest.next();
+                oldest.remove();
+            }
         }
 
+        void apply(Event event) {
+            if (event instanceof VerkehrsmittelCreated) {
+                verkehrsmittelCreated((VerkehrsmittelCreated) event);
+            } else if (event instanceof VerkehrsmittelMoved) {
+                verkehrsmittelMoved((VerkehrsmittelMoved) event);
+            } else if (event instanceof VerkehrsmittelDelayed) {
+                verkehrsmitteDelayed((VerkehrsmittelDelayed) event);
+            }
+            if (event.getCommandId() != null) {
+                commandIds.add(event.getCommandId());
+            }
+        }
+
+        // the (mutable) verkehrsmittel is copied, so the event itself remains unchanged
         void verkehrsmittelCreated(VerkehrsmittelCreated created) {
-            verkehrsmittel = verkehrsmittel.put(created.getVmNummer(), created.verkehrsmittel);
+            verkehrsmittel = Option.of(created.verkehrsmittel.copy());
         }
 
         void verkehrsmittelMoved(VerkehrsmittelMoved moved) {
-            verkehrsmittelByVmNummer(moved.getVmNummer()).map(vm -> vm.setAktuellePosition(moved.getAktuellePosition()));
+            verkehrsmittel.forEach(vm -> vm.setAktuellePosition(moved.getAktuellePosition()));
         }
 
         void verkehrsmitteDelayed(VerkehrsmittelDelayed delayed) {
-            verkehrsmittelByVmNummer(delayed.getVmNummer()).map(vm -> vm.setDelay(delayed.getDelay()));
+            verkehrsmittel.forEach(vm -> vm.setDelay(delayed.getDelay()));
+        }
+
+        // (deep) copy of this state, decoupled from further mutations
+        State copy() {
+            final State copy = new State();
+            copy.verkehrsmittel = verkehrsmittel.map(Verkehrsmittel::copy);
+            copy.commandIds.addAll(commandIds);
+            return copy;
         }
 
         static State empty() {
@@ -0,0 +1,167 @@
+
+package ch.sbb.ausbildung.eventsourcing.backend.vm;
+
+import akka.actor.AbstractActorWithStash;
+import akka.actor.ActorRef;
+import akka.actor.Props;
+import akka.actor.Status;
+import akka.actor.Terminated;
+import akka.event.LoggingAdapter;
+import akka.pattern.Patterns;
+import akka.persistence.query.EventEnvelope;
+import akka.persistence.query.PersistenceQuery;
+import akka.persistence.query.journal.leveldb.javadsl.LeveldbReadJournal;
+import akka.stream.ActorMaterializer;
+import akka.stream.Materializer;
+import akka.stream.javadsl.Sink;
+import ch.sbb.ausbildung.eventsourcing.backend.vm.VerkehrsmittelActor.Command;
+import ch.sbb.ausbildung.eventsourcing.backend.vm.VerkehrsmittelActor.Event;
+import ch.sbb.ausbildung.eventsourcing.backend.vm.VerkehrsmittelActor.LegacyEvents;
+import io.vavr.collection.HashMap;
+import io.vavr.collection.HashSet;
+import io.vavr.collection.List;
+import io.vavr.collection.Map;
+import lombok.Value;
+
+import java.util.concurrent.CompletionStage;
+import java.util.function.Supplier;
+
+/**
+ * Routing parent of all "Verkehrsmittel" entities (comparable to a shard region in akka cluster sharding):
+ * it accepts the same commands as the {@link VerkehrsmittelActor} and forwards each of them to the entity
+ * identified by the command's <code>vmNummer</code>. If the entity is not yet running, it will be created on demand
+ * (and recovers its state from the event store).
+ *
+ * Since every entity is an actor on its own (own mailbox, own persistence id), the commands for different
+ * verkehrsmittel are processed in parallel and a single busy verkehrsmittel can't stall the others.
+ * The entities are looked up by their vmNummer in a compact int-keyed map, so routing a command doesn't allocate.
+ *
+ * The state of all verkehrsmittel (<code>GetState</code>) isn't collected from the running entities (only those started
+ * since the node has been started), it's taken from the current state of the event hub instead, which is built from
+ * all events in the event store.
+ *
+ * At startup the events stored by the former single entity of all verkehrsmittel (persistence id
+ * {@value #LEGACY_PERSISTENCE_ID}, before the split into one entity per verkehrsmittel) are taken over by the entities:
+ * each verkehrsmittel which doesn't have any events of its own yet gets its legacy events (see {@link LegacyEvents}),
+ * stored as its first events. Meanwhile the commands are stashed, so an entity gets its legacy events first.
+ *
+ * @see <a href="https://doc.akka.io/docs/akka/current/cluster-sharding.html">Akka Cluster Sharding (concept)</a>
+ */
+public class VerkehrsmittelRegion extends AbstractActorWithStash {
+
+    // persistence id of the former single entity of all verkehrsmittel
+    static final String LEGACY_PERSISTENCE_ID = "vm";
+
+    private static final int EXPECTED_ENTITIES = 1024;
+
+    private final LoggingAdapter log = context().system().log();
+
+    // running entities by vmNummer
+    private final IntMap<ActorRef> entities = new IntMap<>(EXPECTED_ENTITIES);
+
+    // current state of all verkehrsmittel by vmNummer (e.g. the projection of the event hub)
+    private final Supplier<Map<Integer, Verkehrsmittel>> currentState;
+
+    public static Props props(Supplier<Map<Integer, Verkehrsmittel>> currentState) {
+        return Props.create(VerkehrsmittelRegion.class, () -> new VerkehrsmittelRegion(currentState));
+    }
+
+    private VerkehrsmittelRegion(Supplier<Map<Integer, Verkehrsmittel>> currentState) {
+        this.currentState = currentState;
+    }
+
+    @Override
+    public void preStart() {
+        final LeveldbReadJournal readJournal = PersistenceQuery.get(context().system())
+                .getReadJournalFor(LeveldbReadJournal.class, LeveldbReadJournal.Identifier());
+        Patterns.pipe(legacyEvents(readJournal, ActorMaterializer.create(context())), context().dispatcher()).to(self());
+    }
+
+    // taking over the legacy events, the commands are stashed meanwhile
+    @Override
+    public Receive createReceive() {
+        return receiveBuilder()
+                .match(LegacyHistory.class, this::migrate)
+                .match(Status.Failure.class, failure -> {
+                    log.error(failure.cause(), "reading the events of the legacy entity \"{}\" failed, they aren't taken over",
+                            LEGACY_PERSISTENCE_ID);
+                    routeCommands();
+                })
+                .matchAny(message -> stash())
+                .build();
+    }
+
+    private Receive routing() {
+        return receiveBuilder()
+                // route the commands to the appropriate entity (by vmNummer)
+                .match(Command.EntityCommand.class, this::route)
+                // debug or test command (current state of all verkehrsmittel, from the event hub)
+                .match(Command.GetState.class, this::collectState)
+                // a stopped entity (e.g. after a failed write) is started again by its next command
+                .match(Terminated.class, terminated -> entities.remove(vmNummerOf(terminated.getActor())))
+                .match(Command.NoOp.class, noOp -> {
+                    log.debug("ignoring no-op command");
+                    sender().tell(VerkehrsmittelActor.Ack.instance(), self());
+                })
+                .build();
+    }
+
+    // the legacy events are sent to the entities before any command (messages of the same sender keep their order)
+    private void migrate(LegacyHistory history) {
+        if (!history.getEvents().isEmpty()) {
+            log.info("taking over the events of the legacy entity \"{}\" for {} verkehrsmittel", LEGACY_PERSISTENCE_ID,
+                    history.getEvents().size());
+        }
+        history.getEvents().forEach((vmNummer, events) -> entity(vmNummer).tell(new LegacyEvents(events), self()));
+        routeCommands();
+    }
+
+    private void routeCommands() {
+        getContext().become(routing());
+        unstashAll();
+    }
+
+    private void route(Command.EntityCommand command) {
+        entity(command.getVmNummer()).forward(command, context());
+    }
+
+    // returns the entity with the given vmNummer (started on demand)
+    private ActorRef entity(int vmNummer) {
+        ActorRef entity = entities.get(vmNummer);
+        if (entity == null) {
+            entity = context().actorOf(VerkehrsmittelActor.props(vmNummer), VerkehrsmittelActor.persistenceIdOf(vmNummer));
+            entities.put(vmNummer, context().watch(entity));
+        }
+        return entity;
+    }
+
+    private static int vmNummerOf(ActorRef entity) {
+        return Integer.parseInt(entity.path().name().substring(VerkehrsmittelActor.PERSISTENCE_ID_PREFIX.length()));
+    }
+
+    // replies with the current state of all verkehrsmittel (vmNummer -> verkehrsmittel), without asking the entities
+    private void collectState(Command.GetState getState) {
+        sender().tell(currentState.get(), self());
+    }
+
+    // the legacy events (in the order stored) per verkehrsmittel which doesn't have any events of its own yet
+    private static CompletionStage<LegacyHistory> legacyEvents(LeveldbReadJournal readJournal, Materializer materializer) {
+        return readJournal.currentPersistenceIds()
+                .runWith(Sink.fold(HashSet.<String>empty(), HashSet::add), materializer)
+                .thenCompose(persistenceIds -> readJournal.currentEventsByPersistenceId(LEGACY_PERSISTENCE_ID, 0L, Long.MAX_VALUE)
+                        .map(EventEnvelope::event)
+                        .filter(event -> event instanceof Event)
+                        .map(event -> (Event) event)
+                        .filterNot(event -> persistenceIds.contains(VerkehrsmittelActor.persistenceIdOf(event.getVmNummer())))
+                        .runWith(Sink.fold(HashMap.<Integer, List<Event>>empty(), (events, event) ->
+                                events.put(event.getVmNummer(), events.get(event.getVmNummer()).getOrElse(List.empty()).prepend(event))),
+                                materializer))
+                .thenApply(events -> new LegacyHistory(events.mapValues(List::reverse)));
+    }
+
+    // legacy events per vmNummer
+    @Value
+    static class LegacyHistory {
+        Map<Integer, List<Event>> events;
+    }
+}
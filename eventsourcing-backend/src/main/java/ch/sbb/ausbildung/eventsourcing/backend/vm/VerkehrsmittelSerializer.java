@@ -0,0 +1,215 @@
+
+package ch.sbb.ausbildung.eventsourcing.backend.vm;
+
+import akka.serialization.SerializerWithStringManifest;
+import ch.sbb.ausbildung.eventsourcing.backend.vm.VerkehrsmittelActor.Event.VerkehrsmittelCreated;
+import ch.sbb.ausbildung.eventsourcing.backend.vm.VerkehrsmittelActor.Event.VerkehrsmittelDelayed;
+import ch.sbb.ausbildung.eventsourcing.backend.vm.VerkehrsmittelActor.Event.VerkehrsmittelMoved;
+import io.vavr.collection.List;
+import io.vavr.control.Option;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.NotSerializableException;
+import java.io.UncheckedIOException;
+
+/**
+ * Compact binary serializer for the "Verkehrsmittel" events (incl. the embedded {@link Verkehrsmittel}) and the
+ * state snapshots of the {@link VerkehrsmittelActor}, used instead of the java serialization
+ * (see <code>akka.actor.serialization-bindings</code> in "application.conf").
+ *
+ * The manifest stored alongside each record identifies the type and the version of its binary format
+ * (e.g. <code>"C1"</code> = VerkehrsmittelCreated, version 1). When the format of a type has to change, a new
+ * manifest (version) is introduced for writing while the old one can still be read, so the schema can evolve
+ * without breaking the records already stored in the journal.
+ * Version 2 of the events adds the (nullable) command id, version 2 of the state adds the ids of the latest commands.
+ * Version 3 of the embedded verkehrsmittel (created event and state) allows a missing vmArt or bezeichnung (as the java
+ * serialization did) and routes of any length.
+ *
+ * @see <a href="https://doc.akka.io/docs/akka/current/serialization.html#customization">Akka Serialization</a>
+ * @see <a href="https://doc.akka.io/docs/akka/current/persistence-schema-evolution.html">Schema Evolution</a>
+ */
+public class VerkehrsmittelSerializer extends SerializerWithStringManifest {
+
+    // unique id of this serializer (must not be changed, it's stored alongside the records!)
+    private static final int IDENTIFIER = 7001;
+
+    // manifests: type + version of the binary format
+    private static final String CREATED_V1 = "C1";
+    private static final String MOVED_V1 = "M1";
+    private static final String DELAYED_V1 = "D1";
+    private static final String STATE_V1 = "S1";
+    private static final String CREATED_V2 = "C2";
+    private static final String MOVED_V2 = "M2";
+    private static final String DELAYED_V2 = "D2";
+    private static final String STATE_V2 = "S2";
+    private static final String CREATED_V3 = "C3";
+    private static final String STATE_V3 = "S3";
+
+    @Override
+    public int identifier() {
+        return IDENTIFIER;
+    }
+
+    @Override
+    public String manifest(Object o) {
+        if (o instanceof VerkehrsmittelCreated) {
+            return CREATED_V3;
+        } else if (o instanceof VerkehrsmittelMoved) {
+            return MOVED_V2;
+        } else if (o instanceof VerkehrsmittelDelayed) {
+            return DELAYED_V2;
+        } else if (o instanceof VerkehrsmittelActor.State) {
+            return STATE_V3;
+        }
+        throw new IllegalArgumentException("can not serialize object of type " + o.getClass());
+    }
+
+    @Override
+    public byte[] toBinary(Object o) {
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream(64);
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            if (o instanceof VerkehrsmittelCreated) {
+                final VerkehrsmittelCreated created = (VerkehrsmittelCreated) o;
+                out.writeInt(created.getVmNummer());
+                writeVerkehrsmittel(out, created.getVerkehrsmittel());
+                writeNullableString(out, created.getCommandId());
+            } else if (o instanceof VerkehrsmittelMoved) {
+                final VerkehrsmittelMoved moved = (VerkehrsmittelMoved) o;
+                out.writeInt(moved.getVmNummer());
+                out.writeUTF(moved.getAktuellePosition());
+                writeNullableString(out, moved.getCommandId());
+            } else if (o instanceof VerkehrsmittelDelayed) {
+                final VerkehrsmittelDelayed delayed = (VerkehrsmittelDelayed) o;
+                out.writeInt(delayed.getVmNummer());
+                writeNullableInt(out, delayed.getDelay());
+                writeNullableString(out, delayed.getCommandId());
+            } else if (o instanceof VerkehrsmittelActor.State) {
+                final VerkehrsmittelActor.State state = (VerkehrsmittelActor.State) o;
+                final Option<Verkehrsmittel> verkehrsmittel = state.verkehrsmittel();
+                out.writeBoolean(verkehrsmittel.isDefined());
+                if (verkehrsmittel.isDefined()) {
+                    writeVerkehrsmittel(out, verkehrsmittel.get());
+                }
+                out.writeInt(state.commandIds().size());
+                for (String commandId : state.commandIds()) {
+                    out.writeUTF(commandId);
+                }
+            } else {
+                throw new IllegalArgumentException("can not serialize object of type " + o.getClass());
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return bytes.toByteArray();
+    }
+
+    @Override
+    public Object fromBinary(byte[] bytes, String manifest) throws NotSerializableException {
+        try (DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes))) {
+            switch (manifest) {
+                case CREATED_V1:
+                case CREATED_V2:
+                case CREATED_V3:
+                    return VerkehrsmittelCreated.builder()
+                            .vmNummer(in.readInt())
+                            .verkehrsmittel(readVerkehrsmittel(in, CREATED_V3.equals(manifest)))
+                            .commandId(CREATED_V1.equals(manifest) ? null : readNullableString(in))
+                            .build();
+                case MOVED_V1:
+                case MOVED_V2:
+                    return VerkehrsmittelMoved.builder()
+                            .vmNummer(in.readInt())
+                            .aktuellePosition(in.readUTF())
+                            .commandId(MOVED_V2.equals(manifest) ? readNullableString(in) : null)
+                            .build();
+                case DELAYED_V1:
+                case DELAYED_V2:
+                    return VerkehrsmittelDelayed.builder()
+                            .vmNummer(in.readInt())
+                            .delay(readNullableInt(in))
+                            .commandId(DELAYED_V2.equals(manifest) ? readNullableString(in) : null)
+                            .build();
+                case STATE_V1:
+                case STATE_V2:
+                case STATE_V3:
+                    final VerkehrsmittelActor.State state = VerkehrsmittelActor.State.empty();
+                    if (in.readBoolean()) {
+                        final Verkehrsmittel vm = readVerkehrsmittel(in, STATE_V3.equals(manifest));
+                        state.verkehrsmittelCreated(VerkehrsmittelCreated.builder()
+                                .vmNummer(vm.getVmNummer())
+                                .verkehrsmittel(vm)
+                                .build());
+                    }
+                    if (!STATE_V1.equals(manifest)) {
+                        for (int i = in.readInt(); i > 0; i--) {
+                            state.addCommandId(in.readUTF());
+                        }
+                    }
+                    return state;
+                default:
+                    throw new NotSerializableException("unknown manifest: " + manifest);
+            }
+        } catch (NotSerializableException e) {
+            // unknown manifest (e.g. written by a newer version) -> as expected by akka, not wrapped
+            throw e;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    // field order must not be changed within a version! (always written in the latest version, i.e. 3)
+    private static void writeVerkehrsmittel(DataOutputStream out, Verkehrsmittel vm) throws IOException {
+        out.writeInt(vm.getVmNummer());
+        writeNullableString(out, vm.getVmArt());
+        writeNullableString(out, vm.getBezeichnung());
+        out.writeInt(vm.getFahrtpunkte().size());
+        for (String fahrtpunkt : vm.getFahrtpunkte()) {
+            out.writeUTF(fahrtpunkt);
+        }
+        writeNullableString(out, vm.getAktuellePosition().getOrNull());
+        writeNullableInt(out, vm.getDelay());
+    }
+
+    // version 3 resp. the versions before (non-null vmArt and bezeichnung, at most 65535 fahrtpunkte)
+    private static Verkehrsmittel readVerkehrsmittel(DataInputStream in, boolean version3) throws IOException {
+        final Verkehrsmittel.VerkehrsmittelBuilder builder = Verkehrsmittel.builder()
+                .vmNummer(in.readInt())
+                .vmArt(version3 ? readNullableString(in) : in.readUTF())
+                .bezeichnung(version3 ? readNullableString(in) : in.readUTF());
+        final String[] fahrtpunkte = new String[version3 ? in.readInt() : in.readUnsignedShort()];
+        for (int i = 0; i < fahrtpunkte.length; i++) {
+            fahrtpunkte[i] = in.readUTF();
+        }
+        return builder
+                .fahrtpunkte(List.of(fahrtpunkte))
+                .aktuellePosition(readNullableString(in))
+                .delay(readNullableInt(in))
+                .build();
+    }
+
+    private static void writeNullableString(DataOutputStream out, String value) throws IOException {
+        out.writeBoolean(value != null);
+        if (value != null) {
+            out.writeUTF(value);
+        }
+    }
+
+    private static String readNullableString(DataInputStream in) throws IOException {
+        return in.readBoolean() ? in.readUTF() : null;
+    }
+
+    private static void writeNullableInt(DataOutputStream out, Integer value) throws IOException {
+        out.writeBoolean(value != null);
+        if (value != null) {
+            out.writeInt(value);
+        }
+    }
+
+    private static Integer readNullableInt(DataInputStream in) throws IOException {
+        return in.readBoolean() ? in.readInt() : null;
+    }
+}
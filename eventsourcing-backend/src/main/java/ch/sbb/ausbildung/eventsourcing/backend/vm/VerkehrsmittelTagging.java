@@ -0,0 +1,74 @@
+
+package ch.sbb.ausbildung.eventsourcing.backend.vm;
+
+import akka.persistence.journal.Tagged;
+import akka.persistence.journal.WriteEventAdapter;
+import ch.sbb.ausbildung.eventsourcing.backend.vm.VerkehrsmittelActor.Event;
+import ch.sbb.ausbildung.eventsourcing.backend.vm.VerkehrsmittelActor.JournalEntry;
+import io.vavr.collection.HashSet;
+import io.vavr.collection.Set;
+
+/**
+ * Write event adapter tagging the "Verkehrsmittel" events when they are stored in the journal
+ * (see <code>event-adapters</code> of the journal in "application.conf"), so the query side can read a slice of the
+ * events by <code>eventsByTag</code> instead of reading (and deserializing) the events of all entities.
+ * Each event gets the following tags:<ul>
+ *     <li>{@link #ALL}: every verkehrsmittel event (e.g. for the projection of all verkehrsmittel)</li>
+ *     <li>the event type, e.g. <tt>"vm-moved"</tt> (see {@link #eventType(Class)})</li>
+ *     <li>the vmArt of its verkehrsmittel, e.g. <tt>"vmArt-ICN"</tt> (see {@link #vmArt(String)})</li>
+ *     <li>the route of its verkehrsmittel i.e. first and last fahrtpunkt, e.g. <tt>"route-BS-ZUE"</tt>
+ *     (see {@link #route(Verkehrsmittel)})</li>
+ * </ul>
+ * Since only the created event contains the verkehrsmittel, the actor hands over each event together with its
+ * verkehrsmittel as {@link JournalEntry}; the journal stores the event only (incl. its tags).
+ * Note: events stored before the tagging was introduced don't have any tags.
+ *
+ * @see <a href="https://doc.akka.io/docs/akka/current/persistence.html#event-adapters">Event Adapters</a>
+ * @see <a href="https://doc.akka.io/docs/akka/current/persistence-query-leveldb.html#eventsbytag-and-currenteventsbytag">EventsByTag (leveldb)</a>
+ */
+public class VerkehrsmittelTagging implements WriteEventAdapter {
+
+    // tag of all verkehrsmittel events
+    public static final String ALL = "vm";
+
+    @Override
+    public String manifest(Object event) {
+        return "";
+    }
+
+    @Override
+    public Object toJournal(Object entry) {
+        final JournalEntry journalEntry = (JournalEntry) entry;
+        return new Tagged(journalEntry.getEvent(), tagsOf(journalEntry).toJavaSet());
+    }
+
+    private static Set<String> tagsOf(JournalEntry entry) {
+        final Event event = entry.getEvent();
+        final Verkehrsmittel vm = event instanceof Event.VerkehrsmittelCreated
+                ? ((Event.VerkehrsmittelCreated) event).getVerkehrsmittel()
+                : entry.getVerkehrsmittel();
+        final Set<String> tags = HashSet.of(ALL, eventType(event.getClass()));
+        return vm == null ? tags : tags.add(vmArt(vm.getVmArt())).add(route(vm));
+    }
+
+    public static String eventType(Class<? extends Event> eventType) {
+        if (Event.VerkehrsmittelCreated.class.equals(eventType)) {
+            return "vm-created";
+        } else if (Event.VerkehrsmittelMoved.class.equals(eventType)) {
+            return "vm-moved";
+        } else if (Event.VerkehrsmittelDelayed.class.equals(eventType)) {
+            return "vm-delayed";
+        }
+        throw new IllegalArgumentException("unknown event type: " + eventType);
+    }
+
+    public static String vmArt(String vmArt) {
+        return "vmArt-" + vmArt;
+    }
+
+    public static String route(Verkehrsmittel vm) {
+        return vm.getFahrtpunkte().isEmpty()
+                ? "route-"
+                : "route-" + vm.getFahrtpunkte().head() + "-" + vm.getFahrtpunkte().last();
+    }
+}
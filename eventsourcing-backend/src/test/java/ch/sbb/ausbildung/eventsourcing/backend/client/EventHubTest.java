@@ -0,0 +1,407 @@
+
+package ch.sbb.ausbildung.eventsourcing.backend.client;
+
+import akka.Done;
+import akka.NotUsed;
+import akka.actor.ActorSystem;
+import akka.http.javadsl.model.ws.Message;
+import akka.stream.ActorMaterializer;
+import akka.stream.javadsl.Sink;
+import akka.stream.javadsl.Source;
+import ch.sbb.ausbildung.eventsourcing.backend.vm.Verkehrsmittel;
+import ch.sbb.ausbildung.eventsourcing.backend.vm.VerkehrsmittelActor;
+import ch.sbb.ausbildung.eventsourcing.backend.vm.VerkehrsmittelActor.Event;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.typesafe.config.ConfigFactory;
+import io.vavr.collection.HashMap;
+import io.vavr.collection.List;
+import io.vavr.collection.Map;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.BooleanSupplier;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class EventHubTest {
+
+    private static final Duration TIMEOUT = Duration.ofSeconds(10);
+    // buffer of the pushed events, small enough to overflow as soon as the hub is held up
+    private static final int PUSHED_BUFFER_SIZE = 16;
+    private static final int FLEET_SIZE = 5;
+    private static final ObjectMapper JSON = new ObjectMapper();
+
+    private final InMemoryEventStore eventStore = new InMemoryEventStore();
+    private final java.util.List<ActorSystem> systems = new ArrayList<>();
+    // of the latest actor system
+    private ActorMaterializer materializer;
+
+    @AfterEach
+    void shutdown() {
+        systems.forEach(ActorSystem::terminate);
+    }
+
+    // the current state isn't lost by a restart: it's rebuilt from the event store
+    @Test
+    void currentStateAfterRestart() {
+        for (int vmNummer = 1; vmNummer <= 10; vmNummer++) {
+            eventStore.store(created(vmNummer));
+            eventStore.store(delayed(vmNummer, vmNummer));
+        }
+        final EventHub hub = startHub();
+        awaitSequenceNr(hub, 10, 2);
+        final Map<Integer, Verkehrsmittel> beforeRestart = hub.currentVerkehrsmittel();
+
+        final EventHub restarted = startHub();
+        awaitSequenceNr(restarted, 10, 2);
+
+        assertThat(restarted.currentVerkehrsmittel()).isEqualTo(beforeRestart);
+        assertThat(restarted.currentVerkehrsmittel().mapValues(Verkehrsmittel::getDelay))
+                .isEqualTo(beforeRestart.mapValues(Verkehrsmittel::getDelay));
+        assertThat(restarted.currentVerkehrsmittel().get(7).map(Verkehrsmittel::getDelay)).contains(7);
+    }
+
+    // the events pushed by the entities are applied in order, an event not pushed (e.g. while subscribing) is read
+    // from the event store
+    @Test
+    void pushedEvents() {
+        eventStore.store(created(1));
+        final EventHub hub = startHub();
+        awaitSequenceNr(hub, 1, 1);
+
+        push(delayed(1, 3));
+        // stored only, not pushed -> read when the next event is pushed
+        eventStore.store(delayed(1, 4));
+        push(delayed(1, 5));
+        awaitSequenceNr(hub, 1, 4);
+
+        assertThat(hub.currentVerkehrsmittel().get(1).map(Verkehrsmittel::getDelay)).contains(5);
+        assertThat(hub.currentState().sequenceNrOf(1)).isEqualTo(4);
+    }
+
+    // readers get a consistent state at any time: never changed afterwards, never older than a state read before
+    @Test
+    void concurrentReadersWhileUpdating() throws Exception {
+        final int fleetSize = 10;
+        final int delays = 500;
+        for (int vmNummer = 1; vmNummer <= fleetSize; vmNummer++) {
+            eventStore.store(created(vmNummer));
+        }
+        final EventHub hub = startHub();
+        awaitSequenceNr(hub, fleetSize, 1);
+
+        final AtomicBoolean updating = new AtomicBoolean(true);
+        final java.util.List<CompletableFuture<Integer>> readers = new ArrayList<>();
+        for (int i = 0; i < 4; i++) {
+            readers.add(CompletableFuture.supplyAsync(() -> {
+                int reads = 0;
+                final java.util.Map<Integer, Integer> lastDelays = new java.util.HashMap<>();
+                while (updating.get()) {
+                    final Map<Integer, Verkehrsmittel> state = hub.currentVerkehrsmittel();
+                    final Map<Integer, Integer> delaysRead = delaysOf(state);
+                    delaysRead.forEach((vmNummer, delay) -> {
+                        assertThat(delay).isGreaterThanOrEqualTo(lastDelays.getOrDefault(vmNummer, 0));
+                        lastDelays.put(vmNummer, delay);
+                    });
+                    assertThat(delaysOf(state)).isEqualTo(delaysRead);
+                    reads++;
+                }
+                return reads;
+            }));
+        }
+
+        for (int delay = 1; delay <= delays; delay++) {
+            for (int vmNummer = 1; vmNummer <= fleetSize; vmNummer++) {
+                push(delayed(vmNummer, delay));
+            }
+        }
+        for (int vmNummer = 1; vmNummer <= fleetSize; vmNummer++) {
+            awaitSequenceNr(hub, vmNummer, delays + 1);
+        }
+        updating.set(false);
+
+        for (CompletableFuture<Integer> reader : readers) {
+            assertThat(reader.get(TIMEOUT.toMillis(), TimeUnit.MILLISECONDS)).isPositive();
+        }
+        assertThat(delaysOf(hub.currentVerkehrsmittel()).values()).containsOnly(delays);
+    }
+
+    // the hub falls behind the pushed events (held up by a client): the events missed are caught up from the event
+    // store, every event is broadcasted exactly once and in order (per entity)
+    @Test
+    void pushedEventsOverflow() {
+        for (int vmNummer = 1; vmNummer <= FLEET_SIZE; vmNummer++) {
+            eventStore.store(created(vmNummer));
+        }
+        final EventHub hub = startHub(PUSHED_BUFFER_SIZE);
+        awaitSequenceNr(hub, FLEET_SIZE, 1);
+        final CompletableFuture<Void> gate = new CompletableFuture<>();
+        final Queue<EventHub.Published> received = new ConcurrentLinkedQueue<>();
+        attach(hub, gate, received);
+
+        int delay = 0;
+        while (hub.failedCatchUps() == 0) {
+            assertThat(delay).as("overflown").isLessThan(10_000);
+            pushDelays(++delay);
+        }
+        // missed (while the hub subscribes anew) or pushed to the new subscription
+        for (int i = 0; i < 10; i++) {
+            pushDelays(++delay);
+        }
+        gate.complete(null);
+        for (int i = 0; i < 100; i++) {
+            pushDelays(++delay);
+        }
+
+        final int delays = delay;
+        final long lastSequenceNr = delays + 1;
+        for (int vmNummer = 1; vmNummer <= FLEET_SIZE; vmNummer++) {
+            final String persistenceId = VerkehrsmittelActor.persistenceIdOf(vmNummer);
+            await(() -> sequenceNrsOf(received, persistenceId).lastOption().contains(lastSequenceNr));
+            // from the first event broadcasted after attaching (the created event may still be buffered by the hub)
+            final List<Long> sequenceNrs = sequenceNrsOf(received, persistenceId);
+            assertThat(sequenceNrs.head()).isBetween(1L, 2L);
+            assertThat(sequenceNrs).isEqualTo(List.rangeClosed(sequenceNrs.head(), lastSequenceNr));
+            assertThat(hub.currentState().sequenceNrOf(vmNummer)).isEqualTo(lastSequenceNr);
+        }
+        assertThat(hub.currentVerkehrsmittel().get(1).map(Verkehrsmittel::getDelay)).contains(delays);
+    }
+
+    // a hub which can't keep up (every catch-up overflown again) fails instead of catching up forever
+    @Test
+    void pushedEventsOverflowInARow() throws Exception {
+        eventStore.store(created(1));
+        final EventHub hub = startHub(PUSHED_BUFFER_SIZE);
+        awaitSequenceNr(hub, 1, 1);
+        final CompletionStage<Done> client = attach(hub, new CompletableFuture<>(), new ConcurrentLinkedQueue<>());
+
+        final long deadline = System.nanoTime() + TIMEOUT.toNanos();
+        int delay = 0;
+        while (!client.toCompletableFuture().isDone()) {
+            assertThat(System.nanoTime()).as("timed out").isLessThan(deadline);
+            for (int i = 0; i < PUSHED_BUFFER_SIZE * 4; i++) {
+                push(delayed(1, ++delay));
+            }
+            Thread.sleep(50);
+        }
+
+        assertThatThrownBy(() -> client.toCompletableFuture().get())
+                .hasCauseInstanceOf(IllegalStateException.class);
+        assertThat(hub.failedCatchUps()).isEqualTo(EventHub.MAX_FAILED_CATCH_UPS + 1);
+    }
+
+    // a client connecting while events are pushed gets the current state, followed by the live events not contained in
+    // the state: without gaps and duplicates
+    @Test
+    void currentStateAndEvents() throws Exception {
+        for (int vmNummer = 1; vmNummer <= FLEET_SIZE; vmNummer++) {
+            eventStore.store(created(vmNummer));
+        }
+        final EventHub hub = startHub();
+        awaitSequenceNr(hub, FLEET_SIZE, 1);
+
+        final int delays = 200;
+        final CompletableFuture<Void> pushing = CompletableFuture.runAsync(() -> {
+            for (int delay = 1; delay <= delays; delay++) {
+                pushDelays(delay);
+                LockSupport.parkNanos(Duration.ofMillis(1).toNanos());
+            }
+        });
+        awaitSequenceNr(hub, 1, delays / 4);
+        final Queue<JsonNode> received = connect(hub.currentStateAndEvents(SubscriptionFilter.ALL, MessageEncoding.JSON,
+                new ClientMetrics()));
+        pushing.get(TIMEOUT.toMillis(), TimeUnit.MILLISECONDS);
+
+        final long lastSequenceNr = delays + 1;
+        await(() -> List.ofAll(received).count(message -> message.path("sequenceNr").asLong() == lastSequenceNr) == FLEET_SIZE);
+        final JsonNode state = received.peek();
+        assertThat(state.get("type").asText()).isEqualTo(FSA.Events.VM_STATE);
+        assertThat(state.get("payload")).hasSize(FLEET_SIZE);
+        for (JsonNode entry : state.get("payload")) {
+            final int vmNummer = entry.get("vmNummer").asInt();
+            final long stateSequenceNr = entry.get("sequenceNr").asLong();
+            assertThat(stateSequenceNr).isBetween(1L, lastSequenceNr);
+            // the state contains the delay of its last event
+            assertThat(entry.path("delay").asLong()).isEqualTo(stateSequenceNr - 1);
+            assertThat(sequenceNrsOf(List.ofAll(received).tail(), vmNummer))
+                    .isEqualTo(List.rangeClosed(stateSequenceNr + 1, lastSequenceNr));
+        }
+    }
+
+    // a client resuming its stream gets the events missed since the last one seen per verkehrsmittel, followed by
+    // the live events: without gaps and duplicates
+    @Test
+    void eventsAfterTheLastSeen() {
+        eventStore.store(created(1));
+        eventStore.store(created(2));
+        for (int delay = 1; delay <= 5; delay++) {
+            eventStore.store(delayed(1, delay));
+            eventStore.store(delayed(2, delay));
+        }
+        final EventHub hub = startHub();
+        awaitSequenceNr(hub, 2, 6);
+
+        final Queue<JsonNode> received = connect(hub.eventsAfter(HashMap.of(1, 4L, 2, 6L),
+                SubscriptionFilter.ALL, MessageEncoding.JSON, new ClientMetrics()));
+        push(delayed(1, 6));
+        push(delayed(2, 6));
+
+        await(() -> received.size() >= 4);
+        assertThat(sequenceNrsOf(List.ofAll(received), 1)).containsExactly(5L, 6L, 7L);
+        assertThat(sequenceNrsOf(List.ofAll(received), 2)).containsExactly(7L);
+        assertThat(List.ofAll(received).map(message -> message.get("type").asText())).containsOnly(FSA.Events.VM_DELAYED);
+        assertThat(List.ofAll(received).filter(message -> message.get("meta").asInt() == 1).map(message -> message.get("payload").asInt()))
+                .containsExactly(4, 5, 6);
+    }
+
+    @Test
+    void eventsAfterTheLastSeenOfTheSubscription() {
+        for (int vmNummer = 1; vmNummer <= 3; vmNummer++) {
+            eventStore.store(created(vmNummer));
+        }
+        for (int delay = 1; delay <= 5; delay++) {
+            for (int vmNummer = 1; vmNummer <= 3; vmNummer++) {
+                eventStore.store(delayed(vmNummer, delay));
+            }
+        }
+        final EventHub hub = startHub();
+        awaitSequenceNr(hub, 3, 6);
+
+        // vm 2 isn't subscribed to, vm 3 is unknown to the client (e.g. subscribed after the last event seen)
+        final SubscriptionFilter filter = SubscriptionFilter.of(Collections.singletonMap("vmNummern", Arrays.asList(1, 3)));
+        final Queue<JsonNode> received = connect(hub.eventsAfter(HashMap.of(1, 4L),
+                filter, MessageEncoding.JSON, new ClientMetrics()));
+        push(delayed(2, 6));
+        push(delayed(3, 6));
+
+        await(() -> sequenceNrsOf(List.ofAll(received), 1).contains(6L) && sequenceNrsOf(List.ofAll(received), 3).contains(7L));
+        assertThat(sequenceNrsOf(List.ofAll(received), 1)).containsExactly(5L, 6L);
+        assertThat(sequenceNrsOf(List.ofAll(received), 2)).isEmpty();
+        // as created by the time attached (the pushed event may already be part of it), not its history
+        final List<JsonNode> vm3 = List.ofAll(received).filter(message -> message.get("meta").asInt() == 3);
+        assertThat(vm3.head().get("type").asText()).isEqualTo(FSA.Events.VM_CREATED);
+        assertThat(vm3.head().get("sequenceNr").asLong()).isGreaterThanOrEqualTo(6L);
+        assertThat(vm3.head().get("payload").get("delay").asInt()).isGreaterThanOrEqualTo(5);
+        assertThat(vm3.last().get("sequenceNr").asLong()).isEqualTo(7L);
+    }
+
+    // a hub (e.g. of a node started anew) on the event store of the test, each on its own actor system
+    private EventHub startHub() {
+        startSystem();
+        return new EventHub(systems.get(systems.size() - 1), materializer, eventStore);
+    }
+
+    private EventHub startHub(int pushedBufferSize) {
+        startSystem();
+        return new EventHub(systems.get(systems.size() - 1), materializer, eventStore, pushedBufferSize);
+    }
+
+    private void startSystem() {
+        final ActorSystem system = ActorSystem.create("EventHubTest", ConfigFactory.parseString(
+                "eventsourcing.websocket { buffer-size = 1000, slow-consumer-policy = drop-connection, conflate-updates = off }")
+                .withFallback(ConfigFactory.load()));
+        systems.add(system);
+        materializer = ActorMaterializer.create(system);
+        // the stream supervisor (an actor of the system) is started by the first stream, it may not be used before
+        Source.empty().runWith(Sink.ignore(), materializer).toCompletableFuture().join();
+    }
+
+    // a client of the hub which receives the events only once the gate is opened (i.e. holds up the hub until then)
+    private CompletionStage<Done> attach(EventHub hub, CompletableFuture<Void> gate, Queue<EventHub.Published> received) {
+        final AtomicBoolean attached = new AtomicBoolean();
+        final CompletionStage<Done> client = hub.liveEvents()
+                .filter(published -> {
+                    attached.set(true);
+                    return !published.isHeartbeat();
+                })
+                .mapAsync(1, published -> gate.thenApply(open -> published))
+                .runWith(Sink.foreach(received::add), materializer);
+        // the hub emits heartbeats while there are no events
+        await(attached::get);
+        return client;
+    }
+
+    // runs the stream of a client, the messages received (JSON) are added to the returned queue
+    private Queue<JsonNode> connect(Source<Message, NotUsed> messages) {
+        final Queue<JsonNode> received = new ConcurrentLinkedQueue<>();
+        messages.mapAsync(1, message -> message.asTextMessage().getStreamedText()
+                .runFold("", String::concat, materializer)
+                .thenApply(json -> {
+                    try {
+                        return JSON.readTree(json);
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                }))
+                .runWith(Sink.foreach(received::add), materializer);
+        return received;
+    }
+
+    // sequence numbers of the events of the given verkehrsmittel (JSON messages)
+    private static List<Long> sequenceNrsOf(List<JsonNode> messages, int vmNummer) {
+        return messages.filter(message -> message.path("meta").asInt() == vmNummer)
+                .map(message -> message.get("sequenceNr").asLong());
+    }
+
+    private static List<Long> sequenceNrsOf(Queue<EventHub.Published> received, String persistenceId) {
+        return List.ofAll(received)
+                .filter(published -> persistenceId.equals(published.getPersistenceId()))
+                .map(EventHub.Published::getSequenceNr);
+    }
+
+    private void pushDelays(int delay) {
+        for (int vmNummer = 1; vmNummer <= FLEET_SIZE; vmNummer++) {
+            push(delayed(vmNummer, delay));
+        }
+    }
+
+    // stores the event and pushes it to the hubs, as the entities do
+    private void push(Event event) {
+        final VerkehrsmittelActor.StoredEvent stored = eventStore.store(event);
+        systems.forEach(system -> system.eventStream().publish(stored));
+    }
+
+    private static void awaitSequenceNr(EventHub hub, int vmNummer, long sequenceNr) {
+        await(() -> hub.currentState().sequenceNrOf(vmNummer) >= sequenceNr);
+    }
+
+    private static void await(BooleanSupplier condition) {
+        final long deadline = System.nanoTime() + TIMEOUT.toNanos();
+        while (!condition.getAsBoolean()) {
+            assertThat(System.nanoTime()).as("timed out").isLessThan(deadline);
+            LockSupport.parkNanos(Duration.ofMillis(10).toNanos());
+        }
+    }
+
+    private static Map<Integer, Integer> delaysOf(Map<Integer, Verkehrsmittel> state) {
+        return state.filterValues(vm -> vm.getDelay() != null).mapValues(Verkehrsmittel::getDelay);
+    }
+
+    private static Event created(int vmNummer) {
+        return Event.VerkehrsmittelCreated.builder()
+                .vmNummer(vmNummer)
+                .verkehrsmittel(Verkehrsmittel.builder().vmNummer(vmNummer).vmArt("IC").bezeichnung("IC " + vmNummer)
+                        .fahrtpunkte(List.of("SG", "ZUE", "BN"))
+                        .build())
+                .build();
+    }
+
+    private static Event delayed(int vmNummer, int delay) {
+        return Event.VerkehrsmittelDelayed.builder().vmNummer(vmNummer).delay(delay).build();
+    }
+}
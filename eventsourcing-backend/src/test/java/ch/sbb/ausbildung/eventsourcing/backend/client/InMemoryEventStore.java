@@ -0,0 +1,62 @@
+
+package ch.sbb.ausbildung.eventsourcing.backend.client;
+
+import akka.NotUsed;
+import akka.persistence.query.EventEnvelope;
+import akka.persistence.query.Offset;
+import akka.persistence.query.Sequence;
+import akka.persistence.query.javadsl.CurrentEventsByPersistenceIdQuery;
+import akka.persistence.query.javadsl.CurrentEventsByTagQuery;
+import akka.persistence.query.javadsl.CurrentPersistenceIdsQuery;
+import akka.stream.javadsl.Source;
+import ch.sbb.ausbildung.eventsourcing.backend.vm.VerkehrsmittelActor;
+import ch.sbb.ausbildung.eventsourcing.backend.vm.VerkehrsmittelActor.Event;
+import ch.sbb.ausbildung.eventsourcing.backend.vm.VerkehrsmittelActor.StoredEvent;
+import ch.sbb.ausbildung.eventsourcing.backend.vm.VerkehrsmittelTagging;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+/**
+ * Event store of the tests (in memory), answering the persistence queries of the {@link EventHub}: all events are
+ * tagged as verkehrsmittel event, the offset is the position of an event in the store (starting with 1).
+ */
+class InMemoryEventStore implements CurrentEventsByTagQuery, CurrentEventsByPersistenceIdQuery, CurrentPersistenceIdsQuery {
+
+    private final List<EventEnvelope> events = new ArrayList<>();
+    private final Map<String, Long> sequenceNrs = new LinkedHashMap<>();
+
+    // stores the event of an entity, returns it as pushed by the entity once stored
+    synchronized StoredEvent store(Event event) {
+        final String persistenceId = VerkehrsmittelActor.persistenceIdOf(event.getVmNummer());
+        final long sequenceNr = sequenceNrs.merge(persistenceId, 1L, Long::sum);
+        events.add(new EventEnvelope(Offset.sequence(events.size() + 1), persistenceId, sequenceNr, event));
+        return new StoredEvent(persistenceId, sequenceNr, event);
+    }
+
+    @Override
+    public synchronized Source<EventEnvelope, NotUsed> currentEventsByTag(String tag, Offset offset) {
+        if (!VerkehrsmittelTagging.ALL.equals(tag)) {
+            return Source.empty();
+        }
+        final int from = offset instanceof Sequence ? (int) ((Sequence) offset).value() : 0;
+        return Source.from(new ArrayList<>(events.subList(from, events.size())));
+    }
+
+    @Override
+    public synchronized Source<EventEnvelope, NotUsed> currentEventsByPersistenceId(String persistenceId, long fromSequenceNr,
+                                                                                     long toSequenceNr) {
+        return Source.from(events.stream()
+                .filter(envelope -> envelope.persistenceId().equals(persistenceId))
+                .filter(envelope -> envelope.sequenceNr() >= fromSequenceNr && envelope.sequenceNr() <= toSequenceNr)
+                .collect(Collectors.toList()));
+    }
+
+    @Override
+    public synchronized Source<String, NotUsed> currentPersistenceIds() {
+        return Source.from(new ArrayList<>(sequenceNrs.keySet()));
+    }
+}
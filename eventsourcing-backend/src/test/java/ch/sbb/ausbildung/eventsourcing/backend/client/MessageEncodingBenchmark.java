@@ -0,0 +1,131 @@
+
+package ch.sbb.ausbildung.eventsourcing.backend.client;
+
+import akka.http.javadsl.model.ws.BinaryMessage;
+import akka.http.javadsl.model.ws.Message;
+import akka.http.javadsl.model.ws.TextMessage;
+import akka.util.ByteString;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import com.fasterxml.jackson.dataformat.cbor.CBORFactory;
+import com.fasterxml.jackson.datatype.jsr310.JavaTimeModule;
+import com.fasterxml.jackson.module.paramnames.ParameterNamesModule;
+import io.vavr.jackson.datatype.VavrModule;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of encoding the FSAs sent to the clients, JSON compared to CBOR (see {@link MessageEncoding}): a created event,
+ * a moved event and the state message of 1000 verkehrsmittel. The <code>plain*</code> benchmarks encode with a mapper
+ * configured like the one of {@link FSA} but without its lean sequence serializer (i.e. as formerly encoded), into a
+ * message as well. Run with the gc profiler, so the allocations per encode are reported (<tt>gc.alloc.rate.norm</tt>,
+ * bytes/op); the payload sizes are printed at the start.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MessageEncodingBenchmark {
+
+    private static final ObjectMapper plainJsonMapper = plain(new ObjectMapper());
+    private static final ObjectMapper plainCborMapper = plain(new ObjectMapper(new CBORFactory()));
+
+    private FSA created;
+    private FSA moved;
+    private FSA state;
+
+    @Setup
+    public void setUp() throws JsonProcessingException {
+        created = MessageEncodingTest.created();
+        moved = MessageEncodingTest.moved();
+        state = MessageEncodingTest.state(1000);
+        System.out.printf("%nsize created: %d bytes JSON, %d bytes CBOR; moved: %d bytes JSON, %d bytes CBOR; "
+                        + "state (1000 vm): %d bytes JSON, %d bytes CBOR%n",
+                plainJsonMapper.writeValueAsBytes(created).length, plainCborMapper.writeValueAsBytes(created).length,
+                plainJsonMapper.writeValueAsBytes(moved).length, plainCborMapper.writeValueAsBytes(moved).length,
+                plainJsonMapper.writeValueAsBytes(state).length, plainCborMapper.writeValueAsBytes(state).length);
+    }
+
+    @Benchmark
+    public Message createdJson() {
+        return MessageEncoding.JSON.encode(created);
+    }
+
+    @Benchmark
+    public Message createdCbor() {
+        return MessageEncoding.CBOR.encode(created);
+    }
+
+    @Benchmark
+    public Message createdPlainJson() throws JsonProcessingException {
+        return TextMessage.create(plainJsonMapper.writeValueAsString(created));
+    }
+
+    @Benchmark
+    public Message createdPlainCbor() throws JsonProcessingException {
+        return BinaryMessage.create(ByteString.fromArrayUnsafe(plainCborMapper.writeValueAsBytes(created)));
+    }
+
+    @Benchmark
+    public Message movedJson() {
+        return MessageEncoding.JSON.encode(moved);
+    }
+
+    @Benchmark
+    public Message movedCbor() {
+        return MessageEncoding.CBOR.encode(moved);
+    }
+
+    @Benchmark
+    public Message movedPlainJson() throws JsonProcessingException {
+        return TextMessage.create(plainJsonMapper.writeValueAsString(moved));
+    }
+
+    @Benchmark
+    public Message movedPlainCbor() throws JsonProcessingException {
+        return BinaryMessage.create(ByteString.fromArrayUnsafe(plainCborMapper.writeValueAsBytes(moved)));
+    }
+
+    @Benchmark
+    public Message stateJson() {
+        return MessageEncoding.JSON.encode(state);
+    }
+
+    @Benchmark
+    public Message stateCbor() {
+        return MessageEncoding.CBOR.encode(state);
+    }
+
+    private static ObjectMapper plain(ObjectMapper mapper) {
+        return mapper
+                .registerModule(new ParameterNamesModule())
+                .registerModule(new JavaTimeModule())
+                .disable(SerializationFeature.WRITE_DATES_AS_TIMESTAMPS)
+                .disable(SerializationFeature.WRAP_EXCEPTIONS)
+                .registerModule(new VavrModule());
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder()
+                .include(MessageEncodingBenchmark.class.getSimpleName())
+                .addProfiler(GCProfiler.class)
+                .build()).run();
+    }
+}
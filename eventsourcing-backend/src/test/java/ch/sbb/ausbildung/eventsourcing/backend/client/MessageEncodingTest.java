@@ -0,0 +1,78 @@
+
+package ch.sbb.ausbildung.eventsourcing.backend.client;
+
+import ch.sbb.ausbildung.eventsourcing.backend.client.FSA.VerkehrsmittelFSA;
+import ch.sbb.ausbildung.eventsourcing.backend.vm.Verkehrsmittel;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.dataformat.cbor.CBORFactory;
+import io.vavr.collection.HashMap;
+import io.vavr.collection.List;
+import org.junit.jupiter.api.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class MessageEncodingTest {
+
+    private static final Verkehrsmittel VM = Verkehrsmittel.builder()
+            .vmNummer(711)
+            .vmArt("ICN")
+            .bezeichnung("St.Gallen-Genf Flughafen")
+            .fahrtpunkte(List.of("SG", "GSS", "W", "WI", "ZFH", "ZUE", "AA", "OL", "BN", "FRI", "LS", "GE", "GEAP"))
+            .aktuellePosition("ZUE")
+            .delay(3)
+            .build();
+
+    @Test
+    void encodingByName() {
+        assertThat(MessageEncoding.of(null)).containsExactly(MessageEncoding.JSON);
+        assertThat(MessageEncoding.of("json")).containsExactly(MessageEncoding.JSON);
+        assertThat(MessageEncoding.of(" CBOR ")).containsExactly(MessageEncoding.CBOR);
+        assertThat(MessageEncoding.of("xml")).isEmpty();
+        assertThat(MessageEncoding.of("")).isEmpty();
+    }
+
+    @Test
+    void optionsOfQueryParameters() {
+        assertThat(ClientOptions.of(HashMap.of("frames", "batched", "encoding", "cbor").toJavaMap()))
+                .containsExactly(new ClientOptions(true, MessageEncoding.CBOR));
+        assertThat(ClientOptions.of(HashMap.<String, String>empty().toJavaMap()))
+                .containsExactly(new ClientOptions(false, MessageEncoding.JSON));
+        assertThat(ClientOptions.of(HashMap.of("encoding", "protobuf").toJavaMap())).isEmpty();
+    }
+
+    @Test
+    void eventCarriesItsSequenceNr() throws Exception {
+        final VerkehrsmittelFSA event = VerkehrsmittelFSA.event(FSA.Events.VM_MOVED, "ZUE", 711, 42L);
+        final VerkehrsmittelFSA action = VerkehrsmittelFSA.action(FSA.Events.VM_MOVED, "ZUE", 711);
+
+        assertThat(event.getSequenceNr()).isEqualTo(42L);
+        assertThat(new ObjectMapper().readTree(FSA.writeValueAsString(event)).get("sequenceNr").asLong()).isEqualTo(42L);
+        assertThat(FSA.writeValueAsString(action)).doesNotContain("sequenceNr");
+    }
+
+    // CBOR carries the same structure as JSON, in fewer bytes
+    @Test
+    void cborSameContentSmallerPayload() throws Exception {
+        for (final FSA action : List.of(created(), moved(), state(100))) {
+            final String json = FSA.writeValueAsString(action);
+            final byte[] cbor = FSA.writeValueAsCbor(action).toArray();
+
+            assertThat(new ObjectMapper(new CBORFactory()).readTree(cbor)).isEqualTo(new ObjectMapper().readTree(json));
+            assertThat(cbor.length).isLessThan(json.length());
+        }
+    }
+
+    static VerkehrsmittelFSA created() {
+        return VerkehrsmittelFSA.event(FSA.Events.VM_CREATED, VM, VM.getVmNummer(), 1L);
+    }
+
+    static VerkehrsmittelFSA moved() {
+        return VerkehrsmittelFSA.event(FSA.Events.VM_MOVED, "ZUE", VM.getVmNummer(), 2L);
+    }
+
+    // state message of the given number of verkehrsmittel (as sent to a client on connect)
+    static VerkehrsmittelFSA state(int size) {
+        return VerkehrsmittelFSA.action(FSA.Events.VM_STATE, List.range(0, size)
+                .map(i -> new EventHub.StateEntry(VM.toBuilder().vmNummer(i).build(), 3L)));
+    }
+}
@@ -0,0 +1,115 @@
+
+package ch.sbb.ausbildung.eventsourcing.backend.client;
+
+import akka.persistence.query.EventEnvelope;
+import akka.persistence.query.Offset;
+import ch.sbb.ausbildung.eventsourcing.backend.vm.Verkehrsmittel;
+import ch.sbb.ausbildung.eventsourcing.backend.vm.VerkehrsmittelActor;
+import ch.sbb.ausbildung.eventsourcing.backend.vm.VerkehrsmittelActor.Event;
+import io.vavr.collection.List;
+import io.vavr.control.Option;
+import org.junit.jupiter.api.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class VerkehrsmittelIndexTest {
+
+    private static final List<String> ROUTE = List.of("SG", "W", "WI", "ZFH", "ZUE");
+
+    // vmNummer = delay (0: not delayed)
+    private static final List<Integer> DELAYS = List.of(0, 4, 5, 9, 10);
+
+    @Test
+    void delayBuckets() {
+        final VerkehrsmittelIndex index = DELAYS.foldLeft(VerkehrsmittelIndex.empty(),
+                (indexed, delay) -> indexed.update(null, verkehrsmittel(delay, delay)));
+
+        // candidates, i.e. whole buckets of 5 minutes
+        assertThat(index.delayedBy(1)).containsOnly(4, 5, 9, 10);
+        assertThat(index.delayedBy(4)).containsOnly(4, 5, 9, 10);
+        assertThat(index.delayedBy(5)).containsOnly(5, 9, 10);
+        assertThat(index.delayedBy(9)).containsOnly(5, 9, 10);
+        assertThat(index.delayedBy(10)).containsOnly(10);
+        assertThat(index.delayedBy(11)).containsOnly(10);
+        assertThat(index.delayedBy(15)).isEmpty();
+        assertThatThrownBy(() -> index.delayedBy(0)).isInstanceOf(IllegalArgumentException.class);
+    }
+
+    @Test
+    void delayChangesTheBucket() {
+        final VerkehrsmittelIndex index = VerkehrsmittelIndex.empty()
+                .update(null, verkehrsmittel(711, 4))
+                .update(verkehrsmittel(711, 4), verkehrsmittel(711, 10));
+
+        assertThat(index.delayedBy(4)).containsOnly(711);
+        assertThat(index.delayedBy(10)).containsOnly(711);
+        assertThat(index.update(verkehrsmittel(711, 10), verkehrsmittel(711, 0)).delayedBy(1)).isEmpty();
+    }
+
+    @Test
+    void queryByMinDelay() {
+        final VerkehrsmittelProjection projection = projection();
+
+        assertThat(queryByMinDelay(projection, 4)).containsOnly(4, 5, 9, 10);
+        assertThat(queryByMinDelay(projection, 5)).containsOnly(5, 9, 10);
+        assertThat(queryByMinDelay(projection, 9)).containsOnly(9, 10);
+        assertThat(queryByMinDelay(projection, 10)).containsOnly(10);
+        assertThat(queryByMinDelay(projection, 11)).isEmpty();
+    }
+
+    // a minDelay of 0 or less isn't a criterion: delayed or not
+    @Test
+    void queryByNoMinDelay() {
+        final VerkehrsmittelProjection projection = projection();
+
+        assertThat(queryByMinDelay(projection, 0)).containsOnly(0, 4, 5, 9, 10);
+        assertThat(queryByMinDelay(projection, -3)).containsOnly(0, 4, 5, 9, 10);
+        assertThat(List.ofAll(() -> projection.query(Option.none(), Option.none(), Option.none())).map(Verkehrsmittel::getVmNummer))
+                .containsOnly(0, 4, 5, 9, 10);
+    }
+
+    @Test
+    void queryByAllCriteria() {
+        final VerkehrsmittelProjection projection = projection();
+
+        assertThat(List.ofAll(() -> projection.query(Option.of("ic"), Option.of("zue"), Option.of(5)))
+                .map(Verkehrsmittel::getVmNummer))
+                .containsOnly(5, 9, 10);
+        assertThat(List.ofAll(() -> projection.query(Option.of("ICN"), Option.none(), Option.of(5)))).isEmpty();
+    }
+
+    private static List<Integer> queryByMinDelay(VerkehrsmittelProjection projection, int minDelay) {
+        return List.ofAll(() -> projection.query(Option.none(), Option.none(), Option.of(minDelay)))
+                .map(Verkehrsmittel::getVmNummer);
+    }
+
+    // a verkehrsmittel per delay, created and delayed by events
+    private static VerkehrsmittelProjection projection() {
+        VerkehrsmittelProjection projection = VerkehrsmittelProjection.empty();
+        long offset = 0;
+        for (int delay : DELAYS) {
+            projection = projection
+                    .apply(envelope(++offset, Event.VerkehrsmittelCreated.builder()
+                            .vmNummer(delay)
+                            .verkehrsmittel(verkehrsmittel(delay, 0))
+                            .build()))
+                    .apply(envelope(++offset, Event.VerkehrsmittelDelayed.builder()
+                            .vmNummer(delay)
+                            .delay(delay == 0 ? null : delay)
+                            .build()));
+        }
+        return projection;
+    }
+
+    private static EventEnvelope envelope(long offset, Event event) {
+        return new EventEnvelope(Offset.sequence(offset), VerkehrsmittelActor.persistenceIdOf(event.getVmNummer()), offset, event);
+    }
+
+    private static Verkehrsmittel verkehrsmittel(int vmNummer, int delay) {
+        return Verkehrsmittel.builder().vmNummer(vmNummer).vmArt("IC").bezeichnung("IC " + vmNummer)
+                .fahrtpunkte(ROUTE)
+                .delay(delay == 0 ? null : delay)
+                .build();
+    }
+}
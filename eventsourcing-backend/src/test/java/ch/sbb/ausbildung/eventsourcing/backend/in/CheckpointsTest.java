@@ -0,0 +1,34 @@
+
+package ch.sbb.ausbildung.eventsourcing.backend.in;
+
+import ch.sbb.ausbildung.eventsourcing.backend.in.InboundActor.Checkpoint;
+import ch.sbb.ausbildung.eventsourcing.backend.in.InboundActor.Checkpoints;
+import io.vavr.collection.HashSet;
+import org.junit.jupiter.api.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class CheckpointsTest {
+
+    private static final Checkpoint REGION_1 = new Checkpoint("in/region-1.csv", 270L, 10L);
+    private static final Checkpoint REGION_2 = new Checkpoint("in/region-2.csv", 54L, 2L);
+
+    @Test
+    void retainExistingFiles() {
+        final Checkpoints checkpoints = Checkpoints.of(REGION_1).add(REGION_2).complete("in/2019-01.csv.gz");
+
+        final Checkpoints retained = checkpoints.retain(HashSet.of("in/region-2.csv", "in/region-3.csv"));
+
+        assertThat(retained.getPositions().values()).containsExactly(REGION_2);
+        assertThat(retained.getCompleted()).isEmpty();
+        assertThat(checkpoints.paths()).containsExactlyInAnyOrder("in/region-1.csv", "in/region-2.csv", "in/2019-01.csv.gz");
+    }
+
+    @Test
+    void retainAllFiles() {
+        final Checkpoints checkpoints = Checkpoints.of(REGION_1).complete("in/2019-01.csv.gz");
+
+        // unchanged -> the same instance (nothing to persist)
+        assertThat(checkpoints.retain(HashSet.of("in/region-1.csv", "in/2019-01.csv.gz", "in/region-2.csv"))).isSameAs(checkpoints);
+    }
+}
@@ -0,0 +1,109 @@
+
+package ch.sbb.ausbildung.eventsourcing.backend.in;
+
+import akka.util.ByteString;
+import ch.sbb.ausbildung.eventsourcing.backend.vm.VerkehrsmittelActor.Command;
+import io.vavr.collection.List;
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class CommandParserTest {
+
+    private static final Command NOOP = Command.NoOp.instance();
+
+    @Test
+    void commands() {
+        assertThat(parse("CreateVerkehrsmittel,711,ICN,St.Gallen-Genf Flughafen,SG;W;WI;ZFH;ZUE"))
+                .isEqualTo(new Command.CreateVerkehrsmittel(711, "ICN", "St.Gallen-Genf Flughafen", List.of("SG", "W", "WI", "ZFH", "ZUE")));
+        assertThat(parse("MoveVerkehrsmittel,711,ZUE")).isEqualTo(new Command.MoveVerkehrsmittel(711, "ZUE"));
+        assertThat(parse("DelayVerkehrsmittel,711,5")).isEqualTo(new Command.DelayVerkehrsmittel(711, 5));
+        assertThat(parse("DelayVerkehrsmittel,711,-5")).isEqualTo(new Command.DelayVerkehrsmittel(711, -5));
+    }
+
+    @Test
+    void commandId() {
+        assertThat(parse("DelayVerkehrsmittel,711,5,feed1-4711"))
+                .isEqualTo(new Command.Identified("feed1-4711", new Command.DelayVerkehrsmittel(711, 5)));
+        assertThat(parse("CreateVerkehrsmittel,711,ICN,IC 711,SG;W,feed1-1"))
+                .isEqualTo(new Command.Identified("feed1-1", new Command.CreateVerkehrsmittel(711, "ICN", "IC 711", List.of("SG", "W"))));
+        // an empty command id is none
+        assertThat(parse("MoveVerkehrsmittel,711,ZUE,")).isEqualTo(new Command.MoveVerkehrsmittel(711, "ZUE"));
+    }
+
+    @Test
+    void lineFeeds() {
+        final Command.MoveVerkehrsmittel moved = new Command.MoveVerkehrsmittel(711, "ZUE");
+
+        assertThat(parse("MoveVerkehrsmittel,711,ZUE\n")).isEqualTo(moved);
+        assertThat(parse("MoveVerkehrsmittel,711,ZUE\r\n")).isEqualTo(moved);
+        assertThat(parse("MoveVerkehrsmittel,711,ZUE,feed1-2\r\n"))
+                .isEqualTo(new Command.Identified("feed1-2", moved));
+        assertThat(parse("\r\n")).isEqualTo(NOOP);
+        assertThat(parse("")).isEqualTo(NOOP);
+    }
+
+    @Test
+    void quotedFields() {
+        assertThat(parse("CreateVerkehrsmittel,\"711\",ICN,\"St.Gallen, Genf \"\"Flughafen\"\"\",SG;W"))
+                .isEqualTo(new Command.CreateVerkehrsmittel(711, "ICN", "St.Gallen, Genf \"Flughafen\"", List.of("SG", "W")));
+        assertThat(parse("MoveVerkehrsmittel,711,\"ZUE\",\"feed1,3\""))
+                .isEqualTo(new Command.Identified("feed1,3", new Command.MoveVerkehrsmittel(711, "ZUE")));
+        // an empty quoted field
+        assertThat(parse("CreateVerkehrsmittel,711,\"\",IC,SG"))
+                .isEqualTo(new Command.CreateVerkehrsmittel(711, "", "IC", List.of("SG")));
+    }
+
+    @Test
+    void emptyStationsAreSkipped() {
+        assertThat(parse("CreateVerkehrsmittel,711,ICN,IC,;SG;;W;"))
+                .isEqualTo(new Command.CreateVerkehrsmittel(711, "ICN", "IC", List.of("SG", "W")));
+    }
+
+    @Test
+    void malformedLines() {
+        assertThat(parse("UnknownCommand,711,ZUE")).isEqualTo(NOOP);
+        assertThat(parse("moveverkehrsmittel,711,ZUE")).isEqualTo(NOOP);
+        // too few resp. too many fields
+        assertThat(parse("MoveVerkehrsmittel,711")).isEqualTo(NOOP);
+        assertThat(parse("MoveVerkehrsmittel,711,ZUE,feed1-2,x")).isEqualTo(NOOP);
+        assertThat(parse("CreateVerkehrsmittel,711,ICN,IC")).isEqualTo(NOOP);
+        assertThat(parse("CreateVerkehrsmittel,711,ICN,IC,SG,feed1-1,x")).isEqualTo(NOOP);
+        assertThat(parse(",,,,,,,")).isEqualTo(NOOP);
+    }
+
+    @Test
+    void invalidNumbers() {
+        assertThat(parse("MoveVerkehrsmittel,,ZUE")).isEqualTo(NOOP);
+        assertThat(parse("MoveVerkehrsmittel,-,ZUE")).isEqualTo(NOOP);
+        assertThat(parse("MoveVerkehrsmittel,\"\",ZUE")).isEqualTo(NOOP);
+        assertThat(parse("DelayVerkehrsmittel,711,-")).isEqualTo(NOOP);
+        assertThat(parse("DelayVerkehrsmittel,711,5a")).isEqualTo(NOOP);
+        assertThat(parse("DelayVerkehrsmittel,711,--5")).isEqualTo(NOOP);
+        assertThat(parse("DelayVerkehrsmittel,711, 5")).isEqualTo(NOOP);
+        assertThat(parse("DelayVerkehrsmittel,711,2147483648")).isEqualTo(NOOP);
+        assertThat(parse("DelayVerkehrsmittel,711,2147483647")).isEqualTo(new Command.DelayVerkehrsmittel(711, Integer.MAX_VALUE));
+    }
+
+    @Test
+    void lineWithinBytes() {
+        final byte[] bytes = "MoveVerkehrsmittel,711,ZUE\nDelayVerkehrsmittel,712,3\r\n".getBytes(StandardCharsets.UTF_8);
+        final int secondLine = "MoveVerkehrsmittel,711,ZUE\n".length();
+
+        assertThat(CommandParser.parse(bytes, 0, secondLine)).isEqualTo(new Command.MoveVerkehrsmittel(711, "ZUE"));
+        assertThat(CommandParser.parse(bytes, secondLine, bytes.length)).isEqualTo(new Command.DelayVerkehrsmittel(712, 3));
+        assertThat(CommandParser.parse(bytes, secondLine, secondLine)).isEqualTo(NOOP);
+    }
+
+    @Test
+    void utf8() {
+        assertThat(parse("CreateVerkehrsmittel,711,IR,Zürich-Genève,ZÜ;GE"))
+                .isEqualTo(new Command.CreateVerkehrsmittel(711, "IR", "Zürich-Genève", List.of("ZÜ", "GE")));
+    }
+
+    private static Command parse(String line) {
+        return CommandParser.parse(ByteString.fromString(line, StandardCharsets.UTF_8));
+    }
+}
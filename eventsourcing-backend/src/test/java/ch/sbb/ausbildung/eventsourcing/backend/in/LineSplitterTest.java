@@ -0,0 +1,71 @@
+
+package ch.sbb.ausbildung.eventsourcing.backend.in;
+
+import akka.util.ByteString;
+import ch.sbb.ausbildung.eventsourcing.backend.in.InboundActor.Checkpoint;
+import ch.sbb.ausbildung.eventsourcing.backend.in.InboundActor.Positioned;
+import ch.sbb.ausbildung.eventsourcing.backend.vm.VerkehrsmittelActor.Command;
+import org.junit.jupiter.api.Test;
+
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class LineSplitterTest {
+
+    private static final Checkpoint START = Checkpoint.start(Paths.get("verkehrsmittel.csv"));
+    private static final int MAX_LINE_LENGTH = 30;
+
+    private final List<Checkpoint> skipped = new ArrayList<>();
+    private final LineSplitter splitter = new LineSplitter(START, MAX_LINE_LENGTH, skipped::add);
+
+    @Test
+    void linesAcrossChunks() {
+        final List<Positioned<ByteString>> lines = new ArrayList<>();
+        lines.addAll(splitter.next(ByteString.fromString("MoveVerkehrsmittel,711,ZUE\nDelayVer")));
+        lines.addAll(splitter.next(ByteString.fromString("kehrsmittel,711,5\r\n")));
+
+        assertThat(lines).containsExactly(
+                new Positioned<>(ByteString.fromString("MoveVerkehrsmittel,711,ZUE"), new Checkpoint(START.getPath(), 27L, 1L)),
+                new Positioned<>(ByteString.fromString("DelayVerkehrsmittel,711,5\r"), new Checkpoint(START.getPath(), 54L, 2L)));
+        assertThat(splitter.end()).isEmpty();
+        assertThat(skipped).isEmpty();
+    }
+
+    @Test
+    void overLongLineIsSkipped() {
+        final String overLong = "CreateVerkehrsmittel,711,ICN,St.Gallen-Genf Flughafen,SG;W;WI;ZFH;ZUE";
+        final List<Positioned<ByteString>> lines = new ArrayList<>();
+        // the over-long line spans several chunks (not buffered up to its end)
+        lines.addAll(splitter.next(ByteString.fromString(overLong.substring(0, 20))));
+        lines.addAll(splitter.next(ByteString.fromString(overLong.substring(20, 50))));
+        lines.addAll(splitter.next(ByteString.fromString(overLong.substring(50) + "\nMoveVerkehrsmittel,711,ZUE\n")));
+
+        final Checkpoint afterOverLong = new Checkpoint(START.getPath(), overLong.length() + 1, 1L);
+        assertThat(lines).containsExactly(
+                new Positioned<>(ByteString.empty(), afterOverLong),
+                new Positioned<>(ByteString.fromString("MoveVerkehrsmittel,711,ZUE"), afterOverLong.next(27)));
+        assertThat(CommandParser.parse(lines.get(0).getValue())).isEqualTo(Command.NoOp.instance());
+        assertThat(skipped).containsExactly(afterOverLong);
+    }
+
+    @Test
+    void overLongLineWithinAChunk() {
+        final String overLong = "MoveVerkehrsmittel,711,ZUE,feed1-0123456789";
+
+        assertThat(splitter.next(ByteString.fromString("MoveVerkehrsmittel,711,ZUE\n" + overLong + "\nMoveVerkehrsmittel,711,BN\n")))
+                .extracting(line -> line.getValue().utf8String())
+                .containsExactly("MoveVerkehrsmittel,711,ZUE", "", "MoveVerkehrsmittel,711,BN");
+        assertThat(skipped).containsExactly(new Checkpoint(START.getPath(), 27L + overLong.length() + 1, 2L));
+    }
+
+    @Test
+    void lastLineAtTheEnd() {
+        assertThat(splitter.next(ByteString.fromString("MoveVerkehrsmittel,711,ZUE\nMoveVerkehrsmittel,711,BN"))).hasSize(1);
+
+        assertThat(splitter.end()).containsExactly(
+                new Positioned<>(ByteString.fromString("MoveVerkehrsmittel,711,BN"), new Checkpoint(START.getPath(), 53L, 2L)));
+    }
+}
@@ -0,0 +1,72 @@
+
+package ch.sbb.ausbildung.eventsourcing.backend.vm;
+
+import akka.actor.ActorRef;
+import ch.sbb.ausbildung.eventsourcing.backend.vm.VerkehrsmittelActor.Event;
+import ch.sbb.ausbildung.eventsourcing.backend.vm.VerkehrsmittelActor.State;
+import io.vavr.collection.List;
+import org.junit.jupiter.api.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class CommandDeduplicationTest {
+
+    private static final int MAX_COMMAND_IDS = 3;
+
+    private final State state = State.empty();
+
+    @Test
+    void reDeliveredCommandIsDuplicate() {
+        apply(created("feed1-1"));
+        apply(delayed(5, "feed1-2"));
+
+        assertThat(state.isDuplicate("feed1-1")).isTrue();
+        assertThat(state.isDuplicate("feed1-2")).isTrue();
+        assertThat(state.isDuplicate("feed1-3")).isFalse();
+        // a copy (e.g. the snapshot) keeps the ids
+        assertThat(state.copy().isDuplicate("feed1-2")).isTrue();
+    }
+
+    @Test
+    void onlyTheIdsOfTheLatestCommandsAreKept() {
+        apply(created("feed1-1"));
+        for (int i = 2; i <= 4; i++) {
+            apply(delayed(i, "feed1-" + i));
+        }
+        // an event without command id doesn't evict any
+        apply(delayed(9, null));
+
+        assertThat(state.commandIds()).containsExactly("feed1-2", "feed1-3", "feed1-4");
+        // re-delivered after more than the max. number of further commands -> no longer recognized
+        assertThat(state.isDuplicate("feed1-1")).isFalse();
+    }
+
+    @Test
+    void duplicateWithinABatch() {
+        final EventBatch batch = new EventBatch(state, 100, MAX_COMMAND_IDS);
+        batch.add(created("feed1-1"), ActorRef.noSender());
+
+        // the command isn't stored yet, but its re-delivery is dropped already
+        assertThat(batch.pendingState().isDuplicate("feed1-1")).isTrue();
+        assertThat(state.isDuplicate("feed1-1")).isFalse();
+    }
+
+    private void apply(Event event) {
+        state.apply(event);
+        state.limitCommandIds(MAX_COMMAND_IDS);
+    }
+
+    private static Event created(String commandId) {
+        return Event.VerkehrsmittelCreated.builder()
+                .vmNummer(711)
+                .verkehrsmittel(Verkehrsmittel.builder().vmNummer(711).vmArt("ICN").bezeichnung("IC 711")
+                        .fahrtpunkte(List.of("SG", "ZUE", "BN"))
+                        .build())
+                .commandId(commandId)
+                .build();
+    }
+
+    private static Event delayed(int delay, String commandId) {
+        return Event.VerkehrsmittelDelayed.builder().vmNummer(711).delay(delay).commandId(commandId).build();
+    }
+}
@@ -0,0 +1,117 @@
+
+package ch.sbb.ausbildung.eventsourcing.backend.vm;
+
+import akka.actor.ActorRef;
+import akka.actor.ActorSystem;
+import akka.actor.Props;
+import ch.sbb.ausbildung.eventsourcing.backend.vm.VerkehrsmittelActor.Event;
+import ch.sbb.ausbildung.eventsourcing.backend.vm.VerkehrsmittelActor.JournalEntry;
+import ch.sbb.ausbildung.eventsourcing.backend.vm.VerkehrsmittelActor.State;
+import io.vavr.collection.List;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class EventBatchTest {
+
+    private static final int MAX_SIZE = 3;
+    private static final int MAX_COMMAND_IDS = 100;
+
+    private static ActorSystem system;
+    // senders of the commands
+    private static ActorRef first;
+    private static ActorRef second;
+    private static ActorRef third;
+
+    // stored state of the entity (the events of the batch are applied once written)
+    private final State state = State.empty();
+    private final EventBatch batch = new EventBatch(state, MAX_SIZE, MAX_COMMAND_IDS);
+
+    @BeforeAll
+    static void startSystem() {
+        system = ActorSystem.create("EventBatchTest");
+        first = system.actorOf(Props.empty(), "first");
+        second = system.actorOf(Props.empty(), "second");
+        third = system.actorOf(Props.empty(), "third");
+    }
+
+    @AfterAll
+    static void stopSystem() {
+        system.terminate();
+    }
+
+    @Test
+    void commandsSeeTheEarlierEventsOfTheBatch() {
+        batch.add(created(), first);
+        batch.add(moved("ZUE", "feed1-2"), second);
+
+        assertThat(batch.pendingState().isCreated()).isTrue();
+        assertThat(batch.pendingState().verkehrsmittel().get().getAktuellePosition()).contains("ZUE");
+        assertThat(batch.pendingState().verkehrsmittel().get().canMoveTo("ZFH")).isFalse();
+        assertThat(batch.pendingState().isDuplicate("feed1-2")).isTrue();
+        // not yet stored
+        assertThat(state.isCreated()).isFalse();
+        assertThat(state.isDuplicate("feed1-2")).isFalse();
+    }
+
+    @Test
+    void batchWindowStartsWithTheFirstEvent() {
+        assertThat(batch.add(created(), first)).isEqualTo(EventBatch.Added.FIRST);
+        assertThat(batch.add(moved("ZFH", null), second)).isEqualTo(EventBatch.Added.ADDED);
+        assertThat(batch.add(moved("ZUE", null), third)).isEqualTo(EventBatch.Added.FULL);
+
+        batch.write();
+        assertThat(batch.isEmpty()).isTrue();
+        // a new batch (window) starts, while the former one is being written
+        assertThat(batch.add(moved("BN", null), first)).isEqualTo(EventBatch.Added.FIRST);
+    }
+
+    @Test
+    void sendersAcknowledgedInTheOrderWritten() {
+        batch.add(created(), first);
+        batch.add(moved("ZFH", null), second);
+        final java.util.List<JournalEntry> written = batch.write();
+        batch.add(moved("ZUE", null), third);
+
+        assertThat(written).extracting(JournalEntry::getEvent).containsExactly(created(), moved("ZFH", null));
+        assertThat(batch.written()).isEqualTo(first);
+        assertThat(batch.written()).isEqualTo(second);
+        assertThat(batch.write()).extracting(JournalEntry::getEvent).containsExactly(moved("ZUE", null));
+        assertThat(batch.written()).isEqualTo(third);
+    }
+
+    @Test
+    void rejectedEventsAreDroppedFromThePendingState() {
+        batch.add(created(), first);
+        batch.write();
+        state.apply(created());
+        batch.written();
+
+        batch.add(moved("ZFH", "feed1-2"), second);
+        batch.write();
+        batch.add(moved("ZUE", "feed1-3"), third);
+
+        // the journal rejects the move to "ZFH" -> its command fails, the pending move to "ZUE" is still valid
+        assertThat(batch.rejected(state)).isEqualTo(second);
+        assertThat(batch.pendingState().isDuplicate("feed1-2")).isFalse();
+        assertThat(batch.pendingState().isDuplicate("feed1-3")).isTrue();
+        assertThat(batch.pendingState().verkehrsmittel().get().getAktuellePosition()).contains("ZUE");
+        // the state given is copied, not changed by further events
+        assertThat(state.verkehrsmittel().get().getAktuellePosition()).isEmpty();
+    }
+
+    private static Event created() {
+        return Event.VerkehrsmittelCreated.builder()
+                .vmNummer(711)
+                .verkehrsmittel(Verkehrsmittel.builder().vmNummer(711).vmArt("ICN").bezeichnung("IC 711")
+                        .fahrtpunkte(List.of("SG", "W", "ZFH", "ZUE", "BN"))
+                        .build())
+                .build();
+    }
+
+    private static Event moved(String position, String commandId) {
+        return Event.VerkehrsmittelMoved.builder().vmNummer(711).aktuellePosition(position).commandId(commandId).build();
+    }
+}
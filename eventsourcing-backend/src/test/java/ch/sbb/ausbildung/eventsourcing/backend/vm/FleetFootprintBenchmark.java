@@ -0,0 +1,93 @@
+
+package ch.sbb.ausbildung.eventsourcing.backend.vm;
+
+import io.vavr.collection.HashMap;
+import io.vavr.collection.List;
+import io.vavr.collection.Map;
+
+import java.lang.ref.Reference;
+import java.util.ArrayList;
+import java.util.function.Supplier;
+
+/**
+ * Heap footprint of a large fleet (not a JMH benchmark, the retained heap is measured after a full gc): bytes per
+ * verkehrsmittel of
+ * <ul>
+ *     <li>the verkehrsmittel incl. its fahrtpunkte, sharing the route of its line (the codes are distinct instances as
+ *     read from the input) compared to the fahrtpunkte held per verkehrsmittel (a list of its own, as formerly)</li>
+ *     <li>the map of the fleet by vmNummer: {@link IntMap} compared to a vavr HashMap and a java.util.HashMap</li>
+ * </ul>
+ * Run by its main method, ideally with a fixed heap (e.g. <tt>-Xms2g -Xmx2g</tt>).
+ */
+public class FleetFootprintBenchmark {
+
+    private static final int FLEET_SIZE = 200_000;
+    private static final int LINES = 200;
+    private static final int STATIONS_PER_LINE = 12;
+
+    public static void main(String[] args) throws InterruptedException {
+        report("verkehrsmittel, shared route", () -> {
+            final java.util.List<Verkehrsmittel> fleet = new ArrayList<>(FLEET_SIZE);
+            for (int i = 0; i < FLEET_SIZE; i++) {
+                fleet.add(Verkehrsmittel.builder().vmNummer(i).vmArt("IC").bezeichnung("IC " + i)
+                        .fahrtpunkte(fahrtpunkte(i % LINES))
+                        .aktuellePosition("S" + (i % LINES))
+                        .build());
+            }
+            return fleet;
+        });
+        report("fahrtpunkte per verkehrsmittel (unshared)", () -> {
+            final java.util.List<List<String>> fleet = new ArrayList<>(FLEET_SIZE);
+            for (int i = 0; i < FLEET_SIZE; i++) {
+                fleet.add(fahrtpunkte(i % LINES));
+            }
+            return fleet;
+        });
+
+        final Object entity = new Object();
+        report("IntMap entry", () -> {
+            final IntMap<Object> fleet = new IntMap<>(FLEET_SIZE);
+            for (int i = 0; i < FLEET_SIZE; i++) {
+                fleet.put(i, entity);
+            }
+            return fleet;
+        });
+        report("vavr HashMap entry", () -> {
+            Map<Integer, Object> fleet = HashMap.empty();
+            for (int i = 0; i < FLEET_SIZE; i++) {
+                fleet = fleet.put(i, entity);
+            }
+            return fleet;
+        });
+        report("java.util.HashMap entry", () -> {
+            final java.util.Map<Integer, Object> fleet = new java.util.HashMap<>(FLEET_SIZE * 2);
+            for (int i = 0; i < FLEET_SIZE; i++) {
+                fleet.put(i, entity);
+            }
+            return fleet;
+        });
+    }
+
+    // fahrtpunkte of the given line, new instances of the codes (as parsed from a command)
+    private static List<String> fahrtpunkte(int line) {
+        return List.range(0, STATIONS_PER_LINE).map(station -> new String("S" + (line + station * 7)));
+    }
+
+    private static void report(String name, Supplier<Object> fleet) throws InterruptedException {
+        final long before = usedHeap();
+        final Object retained = fleet.get();
+        final long after = usedHeap();
+        // still referenced while measured
+        Reference.reachabilityFence(retained);
+        System.out.printf("%-45s %6.1f bytes per verkehrsmittel%n", name, (after - before) / (double) FLEET_SIZE);
+    }
+
+    private static long usedHeap() throws InterruptedException {
+        final Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 5; i++) {
+            System.gc();
+            Thread.sleep(100);
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+}
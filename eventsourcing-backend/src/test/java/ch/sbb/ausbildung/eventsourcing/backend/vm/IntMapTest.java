@@ -0,0 +1,148 @@
+
+package ch.sbb.ausbildung.eventsourcing.backend.vm;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class IntMapTest {
+
+    @Test
+    void putGetRemove() {
+        final IntMap<String> map = new IntMap<>(4);
+
+        map.put(711, "a");
+        map.put(-5, "b");
+        map.put(711, "c");
+
+        assertThat(map.get(711)).isEqualTo("c");
+        assertThat(map.get(-5)).isEqualTo("b");
+        assertThat(map.get(712)).isNull();
+        assertThat(map.size()).isEqualTo(2);
+
+        map.remove(711);
+        map.remove(711);
+        map.remove(4711);
+
+        assertThat(map.get(711)).isNull();
+        assertThat(map.get(-5)).isEqualTo("b");
+        assertThat(map.size()).isEqualTo(1);
+    }
+
+    // 0 marks an empty slot, it's held separately
+    @Test
+    void zeroKey() {
+        final IntMap<String> map = new IntMap<>(4);
+
+        assertThat(map.get(0)).isNull();
+        map.put(0, "zero");
+        map.put(0, "zero again");
+        map.put(1, "one");
+
+        assertThat(map.get(0)).isEqualTo("zero again");
+        assertThat(map.size()).isEqualTo(2);
+
+        map.remove(0);
+
+        assertThat(map.get(0)).isNull();
+        assertThat(map.get(1)).isEqualTo("one");
+        assertThat(map.size()).isEqualTo(1);
+    }
+
+    @Test
+    void growsBeyondTheExpectedSize() {
+        final IntMap<Integer> map = new IntMap<>(2);
+        for (int key = 0; key < 100_000; key++) {
+            map.put(key, key);
+        }
+
+        assertThat(map.size()).isEqualTo(100_000);
+        for (int key = 0; key < 100_000; key++) {
+            assertThat(map.get(key)).isEqualTo(key);
+        }
+        assertThat(map.get(100_000)).isNull();
+    }
+
+    // removing a key of a probe sequence (collisions) shifts the following keys back, so they are still found
+    @Test
+    void removeWithinCollisions() {
+        // capacity 16 (expected size 8) -> keys colliding in the same slot
+        final List<Integer> colliding = collidingKeys(16, 6);
+        final IntMap<Integer> map = new IntMap<>(8);
+        colliding.forEach(key -> map.put(key, key));
+
+        for (int i = 0; i < colliding.size(); i++) {
+            map.remove(colliding.get(i));
+
+            assertThat(map.get(colliding.get(i))).isNull();
+            for (int key : colliding.subList(i + 1, colliding.size())) {
+                assertThat(map.get(key)).isEqualTo(key);
+            }
+            assertThat(map.size()).isEqualTo(colliding.size() - i - 1);
+        }
+    }
+
+    @Test
+    void removeFromTheMiddleOfCollisions() {
+        final List<Integer> colliding = collidingKeys(16, 5);
+        final IntMap<Integer> map = new IntMap<>(8);
+        colliding.forEach(key -> map.put(key, key));
+
+        map.remove(colliding.get(2));
+        map.put(colliding.get(2), -1);
+
+        for (int key : colliding) {
+            assertThat(map.get(key)).isEqualTo(key == colliding.get(2) ? -1 : key);
+        }
+        assertThat(map.size()).isEqualTo(5);
+    }
+
+    // same results as a java.util.HashMap for random operations (incl. resizes and removals)
+    @Test
+    void sameAsHashMap() {
+        final Random random = new Random(4711);
+        final IntMap<Integer> map = new IntMap<>(16);
+        final Map<Integer, Integer> expected = new HashMap<>();
+        for (int i = 0; i < 500_000; i++) {
+            final int key = random.nextInt(5_000) - 100;
+            switch (random.nextInt(3)) {
+                case 0:
+                    map.put(key, i);
+                    expected.put(key, i);
+                    break;
+                case 1:
+                    map.remove(key);
+                    expected.remove(key);
+                    break;
+                default:
+                    assertThat(map.get(key)).isEqualTo(expected.get(key));
+            }
+            assertThat(map.size()).isEqualTo(expected.size());
+        }
+        expected.forEach((key, value) -> assertThat(map.get(key)).isEqualTo(value));
+    }
+
+    // keys hashed into the same slot of a table of the given capacity
+    private static List<Integer> collidingKeys(int capacity, int count) {
+        final List<Integer> keys = new ArrayList<>();
+        final int slot = slotOf(1, capacity);
+        for (int key = 1; keys.size() < count; key++) {
+            if (slotOf(key, capacity) == slot) {
+                keys.add(key);
+            }
+        }
+        return keys;
+    }
+
+    // home slot of a key (same hash as the map)
+    private static int slotOf(int key, int capacity) {
+        final int h = key * 0x9E3779B9;
+        return (h ^ (h >>> 16)) & (capacity - 1);
+    }
+}
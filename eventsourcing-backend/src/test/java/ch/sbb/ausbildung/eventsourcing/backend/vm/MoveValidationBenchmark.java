@@ -0,0 +1,84 @@
+
+package ch.sbb.ausbildung.eventsourcing.backend.vm;
+
+import io.vavr.collection.List;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of validating a move (is the station on the rest of the route?) by the indexed route
+ * ({@link Verkehrsmittel#canMoveTo(String)}) compared to the former check on the list of the fahrtpunkte (the rest of
+ * the route after the current position, searched for the station), for routes of different lengths. The verkehrsmittel
+ * is in the middle of its route; the station moved to is a valid one (3/4 of the route) resp. one already passed.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MoveValidationBenchmark {
+
+    @Param({"12", "50", "200"})
+    public int routeLength;
+
+    private Verkehrsmittel vm;
+    private String ahead;
+    private String passed;
+
+    @Setup
+    public void setUp() {
+        final List<String> fahrtpunkte = List.range(0, routeLength).map(i -> "S" + i);
+        vm = Verkehrsmittel.builder().vmNummer(711).vmArt("IC").bezeichnung("IC 711")
+                .fahrtpunkte(fahrtpunkte)
+                .aktuellePosition(fahrtpunkte.get(routeLength / 2))
+                .build();
+        // new instances (as parsed from a command)
+        ahead = new String(fahrtpunkte.get(routeLength * 3 / 4));
+        passed = new String(fahrtpunkte.get(routeLength / 4));
+    }
+
+    @Benchmark
+    public boolean indexedAhead() {
+        return vm.canMoveTo(ahead);
+    }
+
+    @Benchmark
+    public boolean indexedPassed() {
+        return vm.canMoveTo(passed);
+    }
+
+    @Benchmark
+    public boolean linearAhead() {
+        return linearCanMoveTo(vm, ahead);
+    }
+
+    @Benchmark
+    public boolean linearPassed() {
+        return linearCanMoveTo(vm, passed);
+    }
+
+    // the former check: only those stops remain which haven't been passed yet ("übrigbleibende Fahrtpunkte")
+    private static boolean linearCanMoveTo(Verkehrsmittel vm, String station) {
+        return vm.getFahrtpunkte().takeRightUntil(punkt -> punkt.equals(vm.getAktuellePosition().getOrElse("")))
+                .contains(station);
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder().include(MoveValidationBenchmark.class.getSimpleName()).build()).run();
+    }
+}
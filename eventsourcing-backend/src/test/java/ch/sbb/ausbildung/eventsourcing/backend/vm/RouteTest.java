@@ -0,0 +1,44 @@
+
+package ch.sbb.ausbildung.eventsourcing.backend.vm;
+
+import io.vavr.collection.List;
+import org.junit.jupiter.api.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class RouteTest {
+
+    @Test
+    void sharedByLine() {
+        final Route route = Route.of(List.of("SG", "W", "WI").map(String::new));
+
+        assertThat(Route.of(List.of("SG", "W", "WI").map(String::new))).isSameAs(route);
+        assertThat(Route.of(List.of("SG", "W"))).isNotSameAs(route);
+    }
+
+    // the route holds the interned fahrtpunkte, not the (equal) ones of the list it has been created of
+    @Test
+    void holdsInternedFahrtpunkte() {
+        // known stations (e.g. of other lines), the codes of the new route are other instances
+        final List<String> stations = List.of("ZUE", "AA", "OL", "BN", "FRI").map(Stations::intern);
+        final List<String> fahrtpunkte = stations.map(String::new);
+
+        final Route route = Route.of(fahrtpunkte);
+
+        assertThat(route.getFahrtpunkte()).isEqualTo(fahrtpunkte);
+        route.getFahrtpunkte().zip(stations).forEach(fahrtpunkt -> assertThat(fahrtpunkt._1).isSameAs(fahrtpunkt._2));
+    }
+
+    @Test
+    void positions() {
+        final Route route = Route.of(List.of("GE", "LS", "FRI", "LS", "BI"));
+
+        assertThat(route.positionOf("GE")).isEqualTo(0);
+        assertThat(route.positionOf("FRI")).isEqualTo(2);
+        // last position of a station passed twice
+        assertThat(route.positionOf("LS")).isEqualTo(3);
+        assertThat(route.positionOf("BI")).isEqualTo(4);
+        assertThat(route.positionOf("ZUE")).isEqualTo(Route.NONE);
+        assertThat(route.positionOf("NOT-A-STATION")).isEqualTo(Route.NONE);
+    }
+}
@@ -0,0 +1,122 @@
+
+package ch.sbb.ausbildung.eventsourcing.backend.vm;
+
+import ch.sbb.ausbildung.eventsourcing.backend.vm.VerkehrsmittelActor.Event.VerkehrsmittelCreated;
+import ch.sbb.ausbildung.eventsourcing.backend.vm.VerkehrsmittelActor.Event.VerkehrsmittelMoved;
+import io.vavr.collection.List;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.NotSerializableException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Throughput of the {@link VerkehrsmittelSerializer} compared to the java serialization (formerly used): writing and
+ * reading a created resp. a moved event. The sizes of the records are printed at the start.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class VerkehrsmittelSerializerBenchmark {
+
+    private final VerkehrsmittelSerializer serializer = new VerkehrsmittelSerializer();
+
+    private VerkehrsmittelCreated created;
+    private VerkehrsmittelMoved moved;
+    private byte[] createdBinary;
+    private byte[] createdJava;
+    private byte[] movedBinary;
+    private byte[] movedJava;
+
+    @Setup
+    public void setUp() throws IOException {
+        final Verkehrsmittel vm = Verkehrsmittel.builder().vmNummer(711).vmArt("ICN").bezeichnung("St.Gallen-Genf Flughafen")
+                .fahrtpunkte(List.of("SG", "GSS", "W", "WI", "ZFH", "ZUE", "AA", "OL", "BN", "FRI", "LS", "GE", "GEAP"))
+                .aktuellePosition("SG").build();
+        created = VerkehrsmittelCreated.builder().vmNummer(711).verkehrsmittel(vm).commandId("feed1-4711").build();
+        moved = VerkehrsmittelMoved.builder().vmNummer(711).aktuellePosition("ZUE").commandId("feed1-4712").build();
+        createdBinary = serializer.toBinary(created);
+        createdJava = javaSerialized(created);
+        movedBinary = serializer.toBinary(moved);
+        movedJava = javaSerialized(moved);
+        System.out.printf("%nsize created: %d bytes (java serialization: %d), moved: %d bytes (java serialization: %d)%n",
+                createdBinary.length, createdJava.length, movedBinary.length, movedJava.length);
+    }
+
+    @Benchmark
+    public byte[] writeCreated() {
+        return serializer.toBinary(created);
+    }
+
+    @Benchmark
+    public byte[] writeCreatedJava() throws IOException {
+        return javaSerialized(created);
+    }
+
+    @Benchmark
+    public Object readCreated() throws NotSerializableException {
+        return serializer.fromBinary(createdBinary, "C3");
+    }
+
+    @Benchmark
+    public Object readCreatedJava() throws Exception {
+        return javaDeserialized(createdJava);
+    }
+
+    @Benchmark
+    public byte[] writeMoved() {
+        return serializer.toBinary(moved);
+    }
+
+    @Benchmark
+    public byte[] writeMovedJava() throws IOException {
+        return javaSerialized(moved);
+    }
+
+    @Benchmark
+    public Object readMoved() throws NotSerializableException {
+        return serializer.fromBinary(movedBinary, "M2");
+    }
+
+    @Benchmark
+    public Object readMovedJava() throws Exception {
+        return javaDeserialized(movedJava);
+    }
+
+    private static byte[] javaSerialized(Object o) throws IOException {
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+            out.writeObject(o);
+        }
+        return bytes.toByteArray();
+    }
+
+    private static Object javaDeserialized(byte[] bytes) throws Exception {
+        try (ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(bytes))) {
+            return in.readObject();
+        }
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder().include(VerkehrsmittelSerializerBenchmark.class.getSimpleName()).build()).run();
+    }
+}
@@ -0,0 +1,231 @@
+
+package ch.sbb.ausbildung.eventsourcing.backend.vm;
+
+import ch.sbb.ausbildung.eventsourcing.backend.vm.VerkehrsmittelActor.Event.VerkehrsmittelCreated;
+import ch.sbb.ausbildung.eventsourcing.backend.vm.VerkehrsmittelActor.Event.VerkehrsmittelDelayed;
+import ch.sbb.ausbildung.eventsourcing.backend.vm.VerkehrsmittelActor.Event.VerkehrsmittelMoved;
+import io.vavr.collection.List;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.NotSerializableException;
+import java.io.ObjectOutputStream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class VerkehrsmittelSerializerTest {
+
+    private final VerkehrsmittelSerializer serializer = new VerkehrsmittelSerializer();
+
+    private static final Verkehrsmittel VM = Verkehrsmittel.builder()
+            .vmNummer(711)
+            .vmArt("ICN")
+            .bezeichnung("St.Gallen-Genf Flughafen")
+            .fahrtpunkte(List.of("SG", "W", "WI", "ZFH", "ZUE"))
+            .aktuellePosition("wi")
+            .delay(3)
+            .build();
+
+    @Test
+    void createdRoundTrip() throws Exception {
+        final VerkehrsmittelCreated created = VerkehrsmittelCreated.builder().vmNummer(711).verkehrsmittel(VM).commandId("feed1-1").build();
+
+        final VerkehrsmittelCreated read = (VerkehrsmittelCreated) roundTrip(created, "C3");
+
+        assertThat(read.getVmNummer()).isEqualTo(711);
+        assertThat(read.getCommandId()).isEqualTo("feed1-1");
+        assertSameVerkehrsmittel(read.getVerkehrsmittel(), VM);
+    }
+
+    @Test
+    void createdWithoutVmArtAndBezeichnung() throws Exception {
+        final Verkehrsmittel vm = Verkehrsmittel.builder().vmNummer(712).fahrtpunkte(List.of("BN", "OL")).build();
+
+        final VerkehrsmittelCreated read = (VerkehrsmittelCreated) roundTrip(
+                VerkehrsmittelCreated.builder().vmNummer(712).verkehrsmittel(vm).build(), "C3");
+
+        assertThat(read.getCommandId()).isNull();
+        assertSameVerkehrsmittel(read.getVerkehrsmittel(), vm);
+    }
+
+    @Test
+    void createdWithRouteLongerThanAShort() throws Exception {
+        final Verkehrsmittel vm = Verkehrsmittel.builder().vmNummer(713).vmArt("S").bezeichnung("long")
+                .fahrtpunkte(List.range(0, 70_000).map(i -> "P" + i)).build();
+
+        final VerkehrsmittelCreated read = (VerkehrsmittelCreated) roundTrip(
+                VerkehrsmittelCreated.builder().vmNummer(713).verkehrsmittel(vm).build(), "C3");
+
+        assertThat(read.getVerkehrsmittel().getFahrtpunkte()).hasSize(70_000).isEqualTo(vm.getFahrtpunkte());
+    }
+
+    @Test
+    void movedRoundTrip() throws Exception {
+        final VerkehrsmittelMoved moved = VerkehrsmittelMoved.builder().vmNummer(711).aktuellePosition("ZUE").commandId("feed1-2").build();
+        final VerkehrsmittelMoved withoutId = VerkehrsmittelMoved.builder().vmNummer(711).aktuellePosition("ZFH").build();
+
+        assertThat(roundTrip(moved, "M2")).isEqualTo(moved);
+        assertThat(roundTrip(withoutId, "M2")).isEqualTo(withoutId);
+    }
+
+    @Test
+    void delayedRoundTrip() throws Exception {
+        final VerkehrsmittelDelayed delayed = VerkehrsmittelDelayed.builder().vmNummer(711).delay(5).commandId("feed1-3").build();
+        final VerkehrsmittelDelayed noDelay = VerkehrsmittelDelayed.builder().vmNummer(711).build();
+
+        assertThat(roundTrip(delayed, "D2")).isEqualTo(delayed);
+        assertThat(roundTrip(noDelay, "D2")).isEqualTo(noDelay);
+    }
+
+    @Test
+    void stateRoundTrip() throws Exception {
+        final VerkehrsmittelActor.State state = VerkehrsmittelActor.State.empty();
+        state.apply(VerkehrsmittelCreated.builder().vmNummer(711).verkehrsmittel(VM).commandId("a").build());
+        state.apply(VerkehrsmittelMoved.builder().vmNummer(711).aktuellePosition("ZFH").commandId("b").build());
+
+        final VerkehrsmittelActor.State read = (VerkehrsmittelActor.State) roundTrip(state, "S3");
+
+        assertSameVerkehrsmittel(read.verkehrsmittel().get(), state.verkehrsmittel().get());
+        assertThat(read.commandIds()).containsExactly("a", "b");
+    }
+
+    @Test
+    void emptyStateRoundTrip() throws Exception {
+        final VerkehrsmittelActor.State read = (VerkehrsmittelActor.State) roundTrip(VerkehrsmittelActor.State.empty(), "S3");
+
+        assertThat(read.isCreated()).isFalse();
+        assertThat(read.commandIds()).isEmpty();
+    }
+
+    // records stored by the former versions
+
+    @Test
+    void readsCreatedV1AndV2() throws Exception {
+        final byte[] v1 = bytes(out -> {
+            out.writeInt(711);
+            writeVerkehrsmittelV1(out, VM);
+        });
+        final byte[] v2 = bytes(out -> {
+            out.writeInt(711);
+            writeVerkehrsmittelV1(out, VM);
+            out.writeBoolean(true);
+            out.writeUTF("feed1-1");
+        });
+
+        final VerkehrsmittelCreated readV1 = (VerkehrsmittelCreated) serializer.fromBinary(v1, "C1");
+        final VerkehrsmittelCreated readV2 = (VerkehrsmittelCreated) serializer.fromBinary(v2, "C2");
+
+        assertSameVerkehrsmittel(readV1.getVerkehrsmittel(), VM);
+        assertThat(readV1.getCommandId()).isNull();
+        assertSameVerkehrsmittel(readV2.getVerkehrsmittel(), VM);
+        assertThat(readV2.getCommandId()).isEqualTo("feed1-1");
+    }
+
+    @Test
+    void readsMovedAndDelayedV1() throws Exception {
+        final byte[] moved = bytes(out -> {
+            out.writeInt(711);
+            out.writeUTF("ZUE");
+        });
+        final byte[] delayed = bytes(out -> {
+            out.writeInt(711);
+            out.writeBoolean(true);
+            out.writeInt(7);
+        });
+
+        assertThat(serializer.fromBinary(moved, "M1"))
+                .isEqualTo(VerkehrsmittelMoved.builder().vmNummer(711).aktuellePosition("ZUE").build());
+        assertThat(serializer.fromBinary(delayed, "D1"))
+                .isEqualTo(VerkehrsmittelDelayed.builder().vmNummer(711).delay(7).build());
+    }
+
+    @Test
+    void readsStateV1AndV2() throws Exception {
+        final byte[] v1 = bytes(out -> {
+            out.writeBoolean(true);
+            writeVerkehrsmittelV1(out, VM);
+        });
+        final byte[] v2 = bytes(out -> {
+            out.writeBoolean(true);
+            writeVerkehrsmittelV1(out, VM);
+            out.writeInt(2);
+            out.writeUTF("a");
+            out.writeUTF("b");
+        });
+
+        final VerkehrsmittelActor.State readV1 = (VerkehrsmittelActor.State) serializer.fromBinary(v1, "S1");
+        final VerkehrsmittelActor.State readV2 = (VerkehrsmittelActor.State) serializer.fromBinary(v2, "S2");
+
+        assertSameVerkehrsmittel(readV1.verkehrsmittel().get(), VM);
+        assertThat(readV1.commandIds()).isEmpty();
+        assertSameVerkehrsmittel(readV2.verkehrsmittel().get(), VM);
+        assertThat(readV2.commandIds()).containsExactly("a", "b");
+    }
+
+    @Test
+    void rejectsUnknownManifest() {
+        assertThatThrownBy(() -> serializer.fromBinary(new byte[0], "X1")).isInstanceOf(NotSerializableException.class);
+    }
+
+    // the compact format is a fraction of the size of the java serialization (formerly used)
+    @Test
+    void smallerThanJavaSerialization() throws Exception {
+        final VerkehrsmittelCreated created = VerkehrsmittelCreated.builder().vmNummer(711).verkehrsmittel(VM).build();
+        final VerkehrsmittelMoved moved = VerkehrsmittelMoved.builder().vmNummer(711).aktuellePosition("ZUE").build();
+
+        assertThat(serializer.toBinary(created).length).isLessThan(javaSerialized(created).length / 4);
+        assertThat(serializer.toBinary(moved).length).isLessThan(javaSerialized(moved).length / 4);
+    }
+
+    private Object roundTrip(Object o, String expectedManifest) throws NotSerializableException {
+        assertThat(serializer.manifest(o)).isEqualTo(expectedManifest);
+        return serializer.fromBinary(serializer.toBinary(o), serializer.manifest(o));
+    }
+
+    private static void assertSameVerkehrsmittel(Verkehrsmittel actual, Verkehrsmittel expected) {
+        assertThat(actual.getVmNummer()).isEqualTo(expected.getVmNummer());
+        assertThat(actual.getVmArt()).isEqualTo(expected.getVmArt());
+        assertThat(actual.getBezeichnung()).isEqualTo(expected.getBezeichnung());
+        assertThat(actual.getFahrtpunkte()).isEqualTo(expected.getFahrtpunkte());
+        assertThat(actual.getAktuellePosition()).isEqualTo(expected.getAktuellePosition());
+        assertThat(actual.getDelay()).isEqualTo(expected.getDelay());
+    }
+
+    // the embedded verkehrsmittel as written by the versions 1 and 2
+    private static void writeVerkehrsmittelV1(DataOutputStream out, Verkehrsmittel vm) throws IOException {
+        out.writeInt(vm.getVmNummer());
+        out.writeUTF(vm.getVmArt());
+        out.writeUTF(vm.getBezeichnung());
+        out.writeShort(vm.getFahrtpunkte().size());
+        for (String fahrtpunkt : vm.getFahrtpunkte()) {
+            out.writeUTF(fahrtpunkt);
+        }
+        out.writeBoolean(true);
+        out.writeUTF(vm.getAktuellePosition().get());
+        out.writeBoolean(true);
+        out.writeInt(vm.getDelay());
+    }
+
+    private static byte[] bytes(Writer writer) throws IOException {
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            writer.write(out);
+        }
+        return bytes.toByteArray();
+    }
+
+    private static byte[] javaSerialized(Object o) throws IOException {
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+            out.writeObject(o);
+        }
+        return bytes.toByteArray();
+    }
+
+    private interface Writer {
+        void write(DataOutputStream out) throws IOException;
+    }
+}
@@ -0,0 +1,84 @@
+
+package ch.sbb.ausbildung.eventsourcing.backend.vm;
+
+import io.vavr.collection.List;
+import org.junit.jupiter.api.Test;
+
+import java.util.Random;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class VerkehrsmittelTest {
+
+    private static final List<String> ROUTE = List.of("SG", "W", "WI", "ZFH", "ZUE", "AA", "OL", "BN");
+
+    @Test
+    void canMoveToStationsAhead() {
+        final Verkehrsmittel vm = verkehrsmittel(ROUTE, "ZFH");
+
+        assertThat(vm.canMoveTo("ZUE")).isTrue();
+        assertThat(vm.canMoveTo("BN")).isTrue();
+        assertThat(vm.canMoveTo("ZFH")).isFalse();
+        assertThat(vm.canMoveTo("SG")).isFalse();
+        assertThat(vm.canMoveTo("GE")).isFalse();
+        assertThat(vm.canMoveTo("UNKNOWN-STATION")).isFalse();
+    }
+
+    @Test
+    void canMoveToAnyStationBeforeTheFirstMove() {
+        final Verkehrsmittel vm = verkehrsmittel(ROUTE, null);
+
+        assertThat(ROUTE).allMatch(vm::canMoveTo);
+        assertThat(vm.remainingFahrtpunkte()).isEqualTo(ROUTE);
+    }
+
+    @Test
+    void positionIsUpperCase() {
+        final Verkehrsmittel vm = verkehrsmittel(ROUTE, "zfh");
+
+        assertThat(vm.getAktuellePosition()).contains("ZFH");
+        assertThat(vm.canMoveTo("ZUE")).isTrue();
+        assertThat(vm.remainingFahrtpunkte()).startsWith("ZFH", "ZUE");
+    }
+
+    // a station passed twice (e.g. a loop): the move is checked against its last occurrence
+    @Test
+    void repeatedStation() {
+        final List<String> loop = List.of("BN", "OL", "AA", "OL", "ZUE");
+
+        assertThat(verkehrsmittel(loop, "BN").canMoveTo("OL")).isTrue();
+        assertThat(verkehrsmittel(loop, "AA").canMoveTo("OL")).isTrue();
+        assertThat(verkehrsmittel(loop, "OL").canMoveTo("AA")).isFalse();
+        assertThat(verkehrsmittel(loop, "OL").canMoveTo("ZUE")).isTrue();
+    }
+
+    @Test
+    void copiesShareTheRoute() {
+        final Verkehrsmittel vm = verkehrsmittel(ROUTE, "W");
+        final Verkehrsmittel moved = vm.withAktuellePosition("AA");
+
+        assertThat(moved.getFahrtpunkte()).isSameAs(vm.getFahrtpunkte());
+        assertThat(moved.canMoveTo("ZUE")).isFalse();
+        assertThat(vm.canMoveTo("ZUE")).isTrue();
+    }
+
+    // the indexed check gives the same result as the former check on the list of the fahrtpunkte
+    @Test
+    void sameAsLinearCheck() {
+        final Random random = new Random(711);
+        for (int i = 0; i < 20_000; i++) {
+            final List<String> route = List.fill(1 + random.nextInt(30), () -> "S" + random.nextInt(40));
+            final String position = random.nextInt(5) == 0 ? null : route.get(random.nextInt(route.size()));
+            final String station = "S" + random.nextInt(45);
+            final Verkehrsmittel vm = verkehrsmittel(route, position);
+
+            assertThat(vm.canMoveTo(station))
+                    .as("move of %s at %s to %s", route, position, station)
+                    .isEqualTo(route.takeRightUntil(punkt -> punkt.equals(position == null ? "" : position)).contains(station));
+        }
+    }
+
+    private static Verkehrsmittel verkehrsmittel(List<String> fahrtpunkte, String position) {
+        return Verkehrsmittel.builder().vmNummer(711).fahrtpunkte(fahrtpunkte).aktuellePosition(position).build();
+    }
+}
@@ -7,4 +7,6 @@ export interface Verkehrsmittel {
   aktuellePosition: string;
   delay: number;
   arrived?: boolean;
+  // sequence number of the last event received (used to resume after a reconnect)
+  sequenceNr?: number;
 }
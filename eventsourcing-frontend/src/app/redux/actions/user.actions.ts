@@ -12,6 +12,9 @@ type Payload = User | null;
 type MetaData = unknown;
 
 export type UserAction = FluxStandardAction<Payload, MetaData> & AnyAction;
+// filter of the subscription (all given criteria must match, see the backend's SubscriptionFilter)
+export type SubscriptionFilter = { vmNummern?: number[], vmArt?: string, fahrtpunkt?: string };
+
 export type UserErrorAction = FluxStandardAction<Error, MetaData>;
 
 export class UserActions {
@@ -22,6 +25,8 @@ export class UserActions {
   // User actions (Commands sent to backend)
   static LOAD_USERNAME = 'load_username';
   static LOAD_VERKEHRSMITTEL = 'load_verkehrsmittel';
+  static RESUME_VERKEHRSMITTEL = 'resume_verkehrsmittel';
+  static SUBSCRIBE_VERKEHRSMITTEL = 'subscribe_verkehrsmittel';
 
 
   // Actions originated by User, aka. "Commands"
@@ -37,6 +42,23 @@ export class UserActions {
     };
   }
 
+  // resume the event stream after a reconnect, given the last sequence number seen per vmNummer and the filter of the
+  // subscription (the server only knows it per connection)
+  static resumeVerkehrsmittel(lastSequenceNrs: { [vmNummer: number]: number }, filter: SubscriptionFilter): AnyAction {
+    return {
+      type: UserActions.RESUME_VERKEHRSMITTEL,
+      payload: {sequenceNrs: lastSequenceNrs, filter: filter}
+    };
+  }
+
+  // load only a subset of the "verkehrsmittel" (state and events), all given criteria must match
+  static subscribeVerkehrsmittel(filter: SubscriptionFilter): AnyAction {
+    return {
+      type: UserActions.SUBSCRIBE_VERKEHRSMITTEL,
+      payload: filter
+    };
+  }
+
   static usernameLoaded(username: string): UserAction {
     return {
       type: UserActions.USERNAME_LOADED,
@@ -8,7 +8,7 @@ import {Verkehrsmittel} from '../../domain/verkehrsmittel';
  *
  * @see https://redux.js.org/basics/actions
  */
-type Payload = Verkehrsmittel | string | number | null;
+type Payload = Verkehrsmittel | Verkehrsmittel[] | string | number | null;
 type MetaData = number | null;
 
 export type VerkehrsmittelAction = FluxStandardAction<Payload, MetaData> & AnyAction;
@@ -21,6 +21,9 @@ export class VerkehrsmittelActions {
   static VERKEHRSMITTEL_MOVED = 'verkehrsmittel_moved';
   static VERKEHRSMITTEL_ARRIVED = 'verkehrsmittel_arrived';
   static VERKEHRSMITTEL_DELAYED = 'verkehrsmittel_delayed';
+  static VERKEHRSMITTEL_STATE = 'verkehrsmittel_state';
+  // the events of a batched frame (client side only), reduced in one pass
+  static VERKEHRSMITTEL_BATCH = 'verkehrsmittel_batch';
 
   // User actions (Commands)
   static DELAY_VERKEHRSMITTEL = 'delay_verkehrsmittel';
@@ -36,27 +39,44 @@ export class VerkehrsmittelActions {
   }
 
   // Actions originated by Backend, aka. "Events"
-  static created(vmNummer: number, verkehrsmittel: Verkehrsmittel): VerkehrsmittelAction {
+  static created(vmNummer: number, verkehrsmittel: Verkehrsmittel, sequenceNr?: number): VerkehrsmittelAction {
     return {
       type: VerkehrsmittelActions.VERKEHRSMITTEL_CREATED,
       payload: verkehrsmittel,
-      meta: vmNummer
+      meta: vmNummer,
+      sequenceNr: sequenceNr
     };
   }
 
-  static moved(vmNummer: number, aktuellePosition: string): VerkehrsmittelAction {
+  static moved(vmNummer: number, aktuellePosition: string, sequenceNr?: number): VerkehrsmittelAction {
     return {
       type: VerkehrsmittelActions.VERKEHRSMITTEL_MOVED,
       payload: aktuellePosition,
-      meta: vmNummer
+      meta: vmNummer,
+      sequenceNr: sequenceNr
     };
   }
 
-  static delayed(vmNummer: number, delay: number): VerkehrsmittelAction {
+  static delayed(vmNummer: number, delay: number, sequenceNr?: number): VerkehrsmittelAction {
     return {
       type: VerkehrsmittelActions.VERKEHRSMITTEL_DELAYED,
       payload: delay,
-      meta: vmNummer
+      meta: vmNummer,
+      sequenceNr: sequenceNr
+    };
+  }
+
+  static state(verkehrsmittel: Verkehrsmittel[]): VerkehrsmittelAction {
+    return {
+      type: VerkehrsmittelActions.VERKEHRSMITTEL_STATE,
+      payload: verkehrsmittel
+    };
+  }
+
+  static batch(actions: AnyAction[]): AnyAction {
+    return {
+      type: VerkehrsmittelActions.VERKEHRSMITTEL_BATCH,
+      payload: actions
     };
   }
 
@@ -1,6 +1,7 @@
 
 import {Verkehrsmittel} from '../domain/verkehrsmittel';
 import {User} from '../domain/user';
+import {SubscriptionFilter} from './actions/user.actions';
 
 /**
  * This AppState interface defines the central redux store and therewith the one and only state of the whole app!
@@ -17,10 +18,13 @@ export interface AppState {
   // current user
   user: User;
   verkehrsmittel: Verkehrsmittel[];
+  // filter of the current subscription (empty: all verkehrsmittel), sent again when resuming after a reconnect
+  subscription: SubscriptionFilter;
 }
 
 
 export const INITIAL_APP_STATE: AppState = {
   user: {name: '<undefined>'},
-  verkehrsmittel: []
+  verkehrsmittel: [],
+  subscription: {}
 };
@@ -46,6 +46,19 @@ export class UserEpics {
         ignoreElements()
       )
 
+  /**
+   *  Epic or "side-effect" to subscribe to a subset of the "verkehrsmittel" or to resume their events after a reconnect
+   *  (only the missed ones)
+   */
+  @Epic()
+  resumeVerkehrsmittelEpic: IEpic<UserAction, UserAction, AppState, void> =
+    (action$: Observable<UserAction>): Observable<UserAction> =>
+      action$.pipe(
+        ofType(UserActions.RESUME_VERKEHRSMITTEL, UserActions.SUBSCRIBE_VERKEHRSMITTEL),
+        tap((action) => this.websocketService.send(action)),
+        ignoreElements()
+      )
+
   /**
    *  Epic or "side-effect" to signal the delay of a specific "verkehrsmittel" to the backend
    */
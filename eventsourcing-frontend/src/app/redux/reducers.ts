@@ -34,24 +34,32 @@ export const rootReducer: Reducer<AppState, FluxStandardAction<any, any>> =
       // User-Actions
       case UserActions.USERNAME_LOADED:
         return tassign(state, {user: action.payload});
+      case UserActions.LOAD_VERKEHRSMITTEL:
+        return tassign(state, {subscription: {}});
+      case UserActions.SUBSCRIBE_VERKEHRSMITTEL:
+        return tassign(state, {subscription: action.payload || {}});
 
       // Verkehrsmittel-Actions
+      case VerkehrsmittelActions.VERKEHRSMITTEL_BATCH:
+        return (action.payload as FluxStandardAction<any, any>[]).reduce(rootReducer, state);
+      case VerkehrsmittelActions.VERKEHRSMITTEL_STATE:
+        return tassign(state, {verkehrsmittel: action.payload as Verkehrsmittel[]});
       case VerkehrsmittelActions.VERKEHRSMITTEL_CREATED:
         return state.verkehrsmittel.findIndex(verkehrsmittel => verkehrsmittel.vmNummer === action.meta as number) !== -1 ?
           tassign(state, {
             verkehrsmittel: state.verkehrsmittel.map(verkehrsmittel => {
               if (verkehrsmittel.vmNummer === action.meta as number) {
-                return action.payload as Verkehrsmittel;
+                return tassign(action.payload as Verkehrsmittel, {sequenceNr: action['sequenceNr']});
               }
               return verkehrsmittel;
             })
           }) :
-          tassign(state, {verkehrsmittel: [...state.verkehrsmittel, action.payload]});
+          tassign(state, {verkehrsmittel: [...state.verkehrsmittel, tassign(action.payload, {sequenceNr: action['sequenceNr']})]});
       case VerkehrsmittelActions.VERKEHRSMITTEL_MOVED:
         return tassign(state, {
           verkehrsmittel: state.verkehrsmittel.map(verkehrsmittel => {
             if (verkehrsmittel.vmNummer === action.meta as number) {
-              return tassign(verkehrsmittel, {aktuellePosition: action.payload as string});
+              return tassign(verkehrsmittel, {aktuellePosition: action.payload as string, sequenceNr: action['sequenceNr']});
             }
             return verkehrsmittel;
           })
@@ -60,7 +68,7 @@ export const rootReducer: Reducer<AppState, FluxStandardAction<any, any>> =
         return tassign(state, {
           verkehrsmittel: state.verkehrsmittel.map(verkehrsmittel => {
             if (verkehrsmittel.vmNummer === action.meta as number) {
-              return tassign(verkehrsmittel, {delay: action.payload as number});
+              return tassign(verkehrsmittel, {delay: action.payload as number, sequenceNr: action['sequenceNr']});
             }
             return verkehrsmittel;
           })
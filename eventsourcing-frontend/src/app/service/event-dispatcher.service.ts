@@ -5,6 +5,7 @@ import {NgRedux} from '@angular-redux/store';
 import {WebsocketService} from './websocket.service';
 import {Subject, Subscription} from 'rxjs';
 import {FluxStandardAction} from 'flux-standard-action';
+import {AnyAction} from 'redux';
 import {UserActions} from '../redux/actions/user.actions';
 import {VerkehrsmittelActions} from '../redux/actions/verkehrsmittel.actions';
 
@@ -39,6 +40,31 @@ export class EventDispatcherService implements OnDestroy {
     console.error('websocket error received:', error);
   }
 
+  // the redux action of an event received from the backend (null if unhandled)
+  private static toAction(event: FluxStandardAction<any, any>): AnyAction | null {
+    if (!event) {
+      return null;
+    }
+    switch (event.type) {
+      case UserActions.USERNAME_LOADED:
+        return UserActions.usernameLoaded(event.payload);
+      case VerkehrsmittelActions.VERKEHRSMITTEL_STATE:
+        return VerkehrsmittelActions.state(event.payload);
+      case VerkehrsmittelActions.VERKEHRSMITTEL_CREATED:
+        return VerkehrsmittelActions.created(event.meta, event.payload, event['sequenceNr']);
+      case VerkehrsmittelActions.VERKEHRSMITTEL_MOVED:
+        return VerkehrsmittelActions.moved(event.meta, event.payload, event['sequenceNr']);
+      case VerkehrsmittelActions.VERKEHRSMITTEL_DELAYED:
+        return VerkehrsmittelActions.delayed(event.meta, event.payload, event['sequenceNr']);
+      case VerkehrsmittelActions.VERKEHRSMITTEL_ARRIVED:
+        return VerkehrsmittelActions.arrived(event.meta);
+      // Fallback
+      default:
+        console.error('unhandled event received:', event);
+        return null;
+    }
+  }
+
   ngOnDestroy(): void {
     console.log('event dispatcher service stopped');
     // cancel the subscription and close websocket
@@ -56,6 +82,15 @@ export class EventDispatcherService implements OnDestroy {
   private onReconnect(): void {
     // trigger user name from backend
     this.ngRedux.dispatch(UserActions.loadUsername());
+
+    // after a reconnect only the missed events are requested (given the last sequence number seen per verkehrsmittel
+    // and the filter of the subscription)
+    const verkehrsmittel = this.ngRedux.getState().verkehrsmittel;
+    if (verkehrsmittel.length > 0) {
+      const lastSequenceNrs: { [vmNummer: number]: number } = {};
+      verkehrsmittel.forEach(vm => lastSequenceNrs[vm.vmNummer] = vm.sequenceNr || 0);
+      this.ngRedux.dispatch(UserActions.resumeVerkehrsmittel(lastSequenceNrs, this.ngRedux.getState().subscription));
+    }
   }
 
   private subscribeToEvents(): void {
@@ -66,30 +101,19 @@ export class EventDispatcherService implements OnDestroy {
     );
   }
 
-  private handleEvent(event: FluxStandardAction<any, any>): void {
-    if (!event) {
+  // a batched frame contains an array of events (see "frames=batched" of the backend url), dispatched in one go
+  // (one action, reduced in one pass -> the app state changes and the change detection runs once per frame)
+  private handleEvent(event: FluxStandardAction<any, any> | FluxStandardAction<any, any>[]): void {
+    if (Array.isArray(event)) {
+      const actions = event.map(e => EventDispatcherService.toAction(e)).filter(action => !!action);
+      if (actions.length > 0) {
+        this.ngRedux.dispatch(VerkehrsmittelActions.batch(actions));
+      }
       return;
     }
-    switch (event.type) {
-      case UserActions.USERNAME_LOADED:
-        this.ngRedux.dispatch(UserActions.usernameLoaded(event.payload));
-        break;
-      case VerkehrsmittelActions.VERKEHRSMITTEL_CREATED:
-        this.ngRedux.dispatch(VerkehrsmittelActions.created(event.meta, event.payload));
-        break;
-      case VerkehrsmittelActions.VERKEHRSMITTEL_MOVED:
-        this.ngRedux.dispatch(VerkehrsmittelActions.moved(event.meta, event.payload));
-        break;
-      case VerkehrsmittelActions.VERKEHRSMITTEL_DELAYED:
-        this.ngRedux.dispatch(VerkehrsmittelActions.delayed(event.meta, event.payload));
-        break;
-      case VerkehrsmittelActions.VERKEHRSMITTEL_ARRIVED:
-        this.ngRedux.dispatch(VerkehrsmittelActions.arrived(event.meta));
-        break;
-      // Fallback
-      default:
-        console.error('unhandled event received:', event);
-        break;
+    const action = EventDispatcherService.toAction(event);
+    if (action) {
+      this.ngRedux.dispatch(action);
     }
   }
 }
@@ -7,7 +7,8 @@ import {Environment} from './environment.model';
 export const environment: Environment = {
   production: false,
   serviceName: 'eventsourcing-frontend',
-  backendUrl: 'ws://localhost:8080/websocket'
+  // batched frames: the events are sent as JSON array (several per frame)
+  backendUrl: 'ws://localhost:8080/websocket?frames=batched'
 };
 
 /*